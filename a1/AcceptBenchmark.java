@@ -0,0 +1,117 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Measures how many connections per second the server takes as the number
+ * of acceptors grows from 1 to the number of cores. For each count it starts
+ * a server in this JVM on its own port, then client threads open a
+ * connection, send an HTTP/1.0 request (so the server closes afterwards),
+ * read the whole response and start again.
+ *
+ * Usage: java AcceptBenchmark [mode] [seconds] [clients] [maxAcceptors]
+ *
+ */
+public class AcceptBenchmark {
+	static final String REQUEST = "GET /index.html HTTP/1.0\r\n\r\n";
+
+	static final int FIRST_PORT = 7100;
+
+	static volatile boolean running;
+
+	public static void main(String args[]) throws Exception {
+		String mode = args.length > 0 ? args[0] : "nio";
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int clients = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+		int maxAcceptors = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		System.out.println("Mode " + mode + ", " + clients + " clients, " + seconds + " s per run");
+		for (int acceptors = 1; acceptors <= maxAcceptors; acceptors++) {
+			int port = FIRST_PORT + acceptors;
+			startServer(mode, port, acceptors);
+
+			// Warm up, then count the connections completed in the run
+			AtomicLong completed = new AtomicLong();
+			Thread[] threads = startClients(port, clients, completed);
+			Thread.sleep(1000);
+			long before = completed.get();
+			long start = System.nanoTime();
+			Thread.sleep(seconds * 1000L);
+			long count = completed.get() - before;
+			long elapsed = System.nanoTime() - start;
+			running = false;
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			System.out.printf("%2d acceptors %10.0f connections/s%n", acceptors, count * 1e9 / elapsed);
+		}
+
+		// The servers' threads never finish by themselves
+		System.exit(0);
+	}
+
+	/**
+	 * Run WebServer on a background thread and wait until it listens
+	 */
+	static void startServer(String mode, int port, int acceptors) throws Exception {
+		final String[] options = { "-port", "" + port, "-mode", mode, "-acceptors", "" + acceptors,
+			"-accessLog", "none" };
+		Thread server = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					WebServer.main(options);
+				} catch (Exception e) {
+					System.out.println(e);
+				}
+			}
+		}, "server-" + port);
+		server.setDaemon(true);
+		server.start();
+
+		while (true) {
+			try {
+				new Socket("localhost", port).close();
+				return;
+			} catch (ConnectException e) {
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	static Thread[] startClients(final int port, int clients, final AtomicLong completed) {
+		running = true;
+		Thread[] threads = new Thread[clients];
+		for (int i = 0; i < clients; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte[] request = REQUEST.getBytes();
+					byte[] buffer = new byte[8192];
+					while (running) {
+						try {
+							Socket socket = new Socket("localhost", port);
+							socket.getOutputStream().write(request);
+							InputStream in = socket.getInputStream();
+							while (in.read(buffer) != -1) {
+							}
+							socket.close();
+							completed.incrementAndGet();
+						} catch (IOException e) {
+							// Count only connections that got a whole response
+						}
+					}
+				}
+			}, "client-" + i);
+			threads[i].start();
+		}
+		return threads;
+	}
+}
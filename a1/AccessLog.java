@@ -0,0 +1,260 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.net.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Asynchronous access log. Handler threads never touch the output stream:
+ * they claim a slot in a fixed-size ring buffer with a compare-and-set, fill
+ * in the record and publish it. A background writer thread takes the
+ * published records in order, formats them and writes them out in batches.
+ *
+ * If the writer falls behind and the ring is full, new records are dropped
+ * (and counted) rather than making the handler wait.
+ *
+ * The line format is a string with these fields:
+ * 		%h client address		%t time of the request
+ * 		%r request line			%U requested URI
+ * 		%s status code			%b body bytes sent
+ * 		%D time taken, in microseconds
+ * The default is the common log format, "%h - - [%t] \"%r\" %s %b".
+ *
+ */
+final class AccessLog implements Runnable {
+	static final String COMMON_FORMAT = "%h - - [%t] \"%r\" %s %b";
+
+	// How long the writer sleeps when there is nothing to write
+	private static final long IDLE_NANOS = 1000000;
+
+	// Most records formatted before the batch is written out
+	private static final int BATCH = 1024;
+
+	private static final DateTimeFormatter LOG_TIME =
+		DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+
+	private final boolean enabled;
+	private final OutputStream out;
+	private final String[] format;
+
+	// The ring: records live in parallel arrays indexed by sequence & mask
+	private final int capacity;
+	private final int mask;
+	private final long[] time;
+	private final InetAddress[] client;
+	private final String[] method;
+	private final String[] uri;
+	private final String[] version;
+	private final int[] status;
+	private final long[] bytes;
+	private final long[] nanos;
+
+	// published[slot] is set to sequence + 1 once the record is filled in
+	private final AtomicLongArray published;
+
+	// Next sequence to hand out, and first sequence the writer has not taken
+	private final AtomicLong next = new AtomicLong();
+	private volatile long consumed = 0;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Open the log. The target is "none" to turn logging off, "stdout", or
+	 * the name of a file to append to. The capacity is rounded up to a power
+	 * of two.
+	 */
+	static AccessLog open(String target, String format, int capacity) throws IOException {
+		if (target.equals("none")) {
+			return new AccessLog(false, null, format, 1);
+		}
+		OutputStream out = target.equals("stdout") ? System.out : new FileOutputStream(target, true);
+		AccessLog log = new AccessLog(true, out, format, capacity);
+		Thread writer = new Thread(log, "access-log");
+		writer.setDaemon(true);
+		writer.start();
+		return log;
+	}
+
+	private AccessLog(boolean enabled, OutputStream out, String format, int capacity) {
+		this.enabled = enabled;
+		this.out = out;
+		this.format = compile(format);
+
+		int size = 1;
+		while (size < capacity) {
+			size *= 2;
+		}
+		this.capacity = size;
+		this.mask = size - 1;
+		time = new long[size];
+		client = new InetAddress[size];
+		method = new String[size];
+		uri = new String[size];
+		version = new String[size];
+		status = new int[size];
+		bytes = new long[size];
+		nanos = new long[size];
+		published = new AtomicLongArray(size);
+	}
+
+	/**
+	 * Record one request. The request may be null if it could not be parsed.
+	 * Never blocks and does not allocate.
+	 */
+	void log(InetAddress from, ParsedRequest request, int statusCode, long bodyBytes, long elapsedNanos) {
+		if (!enabled) {
+			return;
+		}
+
+		// Claim a slot, unless the writer is a whole ring behind
+		long sequence;
+		do {
+			sequence = next.get();
+			if (sequence - consumed >= capacity) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!next.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int) sequence & mask;
+		time[slot] = System.currentTimeMillis();
+		client[slot] = from;
+		method[slot] = request != null ? request.method : null;
+		uri[slot] = request != null ? request.uri : null;
+		version[slot] = request != null ? request.version : null;
+		status[slot] = statusCode;
+		bytes[slot] = bodyBytes;
+		nanos[slot] = elapsedNanos;
+		published.set(slot, sequence + 1);
+	}
+
+	/**
+	 * Number of records dropped because the ring was full
+	 */
+	long dropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * The writer thread: format published records in order and write them
+	 * out a batch at a time
+	 */
+	@Override
+	public void run() {
+		StringBuilder line = new StringBuilder(256);
+		ByteArrayOutputStream batch = new ByteArrayOutputStream(BATCH * 128);
+		while (true) {
+			long sequence = consumed;
+			int count = 0;
+			while (count < BATCH) {
+				int slot = (int) sequence & mask;
+				if (published.get(slot) != sequence + 1) {
+					break;
+				}
+				line.setLength(0);
+				format(slot, line);
+				line.append('\n');
+				for (int i = 0; i < line.length(); i++) {
+					batch.write(line.charAt(i));
+				}
+
+				// Let go of references so the slot does not keep them alive
+				client[slot] = null;
+				method[slot] = null;
+				uri[slot] = null;
+				version[slot] = null;
+				sequence++;
+				count++;
+			}
+			consumed = sequence;
+
+			if (count == 0) {
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+			try {
+				batch.writeTo(out);
+				out.flush();
+			} catch (IOException e) {
+				System.out.println("Error writing access log " + e);
+			}
+			batch.reset();
+		}
+	}
+
+	/**
+	 * Split the format into literal text and "%x" field codes
+	 */
+	private static String[] compile(String format) {
+		List<String> pieces = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < format.length(); i++) {
+			char c = format.charAt(i);
+			if (c == '%' && i + 1 < format.length()) {
+				if (literal.length() > 0) {
+					pieces.add(literal.toString());
+					literal.setLength(0);
+				}
+				pieces.add(format.substring(i, i + 2));
+				i++;
+			}
+			else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			pieces.add(literal.toString());
+		}
+		return pieces.toArray(new String[pieces.size()]);
+	}
+
+	private void format(int slot, StringBuilder line) {
+		for (String piece : format) {
+			if (piece.length() != 2 || piece.charAt(0) != '%') {
+				line.append(piece);
+				continue;
+			}
+			switch (piece.charAt(1)) {
+			case 'h':
+				line.append(client[slot] != null ? client[slot].getHostAddress() : "-");
+				break;
+			case 't':
+				line.append(LOG_TIME.format(Instant.ofEpochMilli(time[slot])));
+				break;
+			case 'r':
+				if (method[slot] != null) {
+					line.append(method[slot]).append(' ').append(uri[slot]).append(' ').append(version[slot]);
+				}
+				else {
+					line.append('-');
+				}
+				break;
+			case 'U':
+				line.append(uri[slot] != null ? uri[slot] : "-");
+				break;
+			case 's':
+				line.append(status[slot]);
+				break;
+			case 'b':
+				line.append(bytes[slot]);
+				break;
+			case 'D':
+				line.append(nanos[slot] / 1000);
+				break;
+			case '%':
+				line.append('%');
+				break;
+			default:
+				line.append(piece);
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.net.*;
+
+/**
+ * Check that request URIs which are not valid file paths are answered with
+ * an error instead of killing the connection or the event loop. Starts the
+ * server in each serving mode, sends a raw NUL and a "%00" in the URI, and
+ * then a normal request, which must still be served. Run it from the
+ * directory holding index.html.
+ *
+ * Usage: java BadPathTest [first port]
+ *
+ */
+public class BadPathTest {
+	static final String[] MODES = { "nio", "thread", "pool", "virtual" };
+
+	public static void main(String args[]) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7101;
+		int failures = 0;
+		for (int i = 0; i < MODES.length; i++) {
+			failures += check(MODES[i], port + i);
+		}
+		System.out.println(failures == 0 ? "All passed" : failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	static int check(String mode, final int port) throws Exception {
+		final String[] serverArgs = { "-port", String.valueOf(port), "-mode", mode, "-loops", "1" };
+		Thread server = new Thread("server-" + mode) {
+			@Override
+			public void run() {
+				try {
+					WebServer.main(serverArgs);
+				} catch (Exception e) {
+					System.out.println(e);
+				}
+			}
+		};
+		server.setDaemon(true);
+		server.start();
+		waitForServer(port);
+
+		int failures = 0;
+		failures += expect(mode, "raw NUL", port, "/index\0.html", 400);
+		failures += expect(mode, "%00", port, "/index%00.html", 404);
+		failures += expect(mode, "normal request after them", port, "/index.html", 200);
+		return failures;
+	}
+
+	static int expect(String mode, String name, int port, String uri, int status) {
+		String statusLine;
+		try {
+			statusLine = statusLine(port, uri);
+		} catch (IOException e) {
+			statusLine = e.toString();
+		}
+		boolean passed = statusLine != null && statusLine.startsWith("HTTP/1.1 " + status + " ");
+		System.out.println((passed ? "PASS " : "FAIL ") + mode + ", " + name + ": " + statusLine);
+		return passed ? 0 : 1;
+	}
+
+	/**
+	 * Send a GET for uri on a new connection and return the status line of
+	 * the response, or null if the server closed without one
+	 */
+	static String statusLine(int port, String uri) throws IOException {
+		Socket socket = new Socket("localhost", port);
+		try {
+			socket.setSoTimeout(3000);
+			OutputStream out = socket.getOutputStream();
+			out.write(("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+			out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+			return in.readLine();
+		} finally {
+			socket.close();
+		}
+	}
+
+	static void waitForServer(int port) throws InterruptedException {
+		for (int attempt = 0; attempt < 50; attempt++) {
+			try {
+				new Socket("localhost", port).close();
+				return;
+			} catch (IOException e) {
+				Thread.sleep(100);
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.nio.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A pool of direct ByteBuffers in power-of-two size classes, from 1K to
+ * 64K. Connections borrow their request buffer and the buffers their
+ * response headers are encoded into, and give them back when done, so a
+ * server under steady load stops allocating them. Direct buffers are
+ * written to sockets without the extra copy a heap buffer needs.
+ *
+ * Each size class is split into a few stripes, each a small stack behind
+ * its own lock; a thread starts at the stripe picked by its id, so threads
+ * rarely wait for each other. Borrowing and returning allocate nothing.
+ * A request larger than the largest class, or a borrow from an empty
+ * class, gets a new buffer; a buffer returned to a full stripe is dropped.
+ *
+ */
+final class BufferPool {
+	private static final int MIN_SHIFT = 10;
+	private static final int MAX_SHIFT = 16;
+	private static final int STRIPES = 8;
+
+	/**
+	 * Buffers of one size class available to one stripe of threads
+	 */
+	private static final class Stack {
+		private final ByteBuffer[] buffers;
+		private int count = 0;
+
+		Stack(int capacity) {
+			buffers = new ByteBuffer[capacity];
+		}
+
+		synchronized ByteBuffer pop() {
+			if (count == 0) {
+				return null;
+			}
+			ByteBuffer buffer = buffers[--count];
+			buffers[count] = null;
+			return buffer;
+		}
+
+		synchronized boolean push(ByteBuffer buffer) {
+			if (count == buffers.length) {
+				return false;
+			}
+			buffers[count++] = buffer;
+			return true;
+		}
+
+		synchronized int size() {
+			return count;
+		}
+	}
+
+	// stacks[sizeClass][stripe]
+	private final Stack[][] stacks;
+
+	private final AtomicLong allocated = new AtomicLong();
+
+	/**
+	 * Create a pool keeping up to perClass free buffers of each size
+	 */
+	BufferPool(int perClass) {
+		int perStripe = (perClass + STRIPES - 1) / STRIPES;
+		stacks = new Stack[MAX_SHIFT - MIN_SHIFT + 1][STRIPES];
+		for (int i = 0; i < stacks.length; i++) {
+			for (int j = 0; j < STRIPES; j++) {
+				stacks[i][j] = new Stack(perStripe);
+			}
+		}
+	}
+
+	/**
+	 * Borrow a cleared buffer of at least the given size
+	 */
+	ByteBuffer acquire(int size) {
+		int sizeClass = sizeClass(size);
+		if (sizeClass < stacks.length) {
+			int stripe = (int) Thread.currentThread().getId();
+			for (int i = 0; i < STRIPES; i++) {
+				ByteBuffer buffer = stacks[sizeClass][(stripe + i) & (STRIPES - 1)].pop();
+				if (buffer != null) {
+					return buffer;
+				}
+			}
+		}
+		allocated.incrementAndGet();
+		return ByteBuffer.allocateDirect(sizeClass < stacks.length ? 1 << (sizeClass + MIN_SHIFT) : size);
+	}
+
+	/**
+	 * Give back a buffer from acquire(). It must not be used afterwards.
+	 */
+	void release(ByteBuffer buffer) {
+		int sizeClass = sizeClass(buffer.capacity());
+		if (sizeClass >= stacks.length || buffer.capacity() != 1 << (sizeClass + MIN_SHIFT)) {
+			return;
+		}
+		buffer.clear();
+		int stripe = (int) Thread.currentThread().getId();
+		stacks[sizeClass][stripe & (STRIPES - 1)].push(buffer);
+	}
+
+	/**
+	 * Number of buffers allocated since the server started. Once the pool
+	 * has warmed up this stays flat.
+	 */
+	long allocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * Number of buffers waiting in the pool
+	 */
+	int free() {
+		int free = 0;
+		for (Stack[] stripes : stacks) {
+			for (Stack stack : stripes) {
+				free += stack.size();
+			}
+		}
+		return free;
+	}
+
+	/**
+	 * Index of the smallest size class holding size bytes
+	 */
+	private static int sizeClass(int size) {
+		if (size <= 1 << MIN_SHIFT) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * A read-only document root packed into one file by BundleBuilder. The
+ * whole bundle is memory-mapped once at startup and its index read into a
+ * map, so serving a bundled file needs no open() or stat() calls: the body
+ * is a slice of the MappedByteBuffer, and the response headers are encoded
+ * when the bundle is opened.
+ *
+ * A bundle file is laid out as
+ *
+ * 		int MAGIC, int index length
+ * 		index: int entry count, then for each entry
+ * 			UTF path, UTF content type, long last modified,
+ * 			long offset, long length, int coding count,
+ * 			then for each compressed copy: UTF coding, long offset, long length
+ * 		data: the file bodies; offsets are counted from the start of data
+ *
+ * Paths are normalized as by ContentCache.normalize(), e.g. "./index.html".
+ *
+ */
+final class Bundle {
+	static final int MAGIC = 0xEC5E414B;
+
+	/**
+	 * A compressed copy of a bundled file, with its own ETag and headers
+	 */
+	static final class Encoded {
+		final String coding;
+		final ByteBuffer body;
+		final String etag;
+		final byte[] header;
+		final byte[] notModifiedHeader;
+
+		Encoded(String coding, ByteBuffer body, String contentType, String identityEtag, long lastModified) {
+			this.coding = coding;
+			this.body = body;
+			this.etag = HttpResponse.encodedEtag(identityEtag, coding);
+			this.header = HttpResponse.encodedHeader(contentType, coding, body.remaining(), etag, lastModified);
+			this.notModifiedHeader = HttpResponse.notModifiedHeader(etag, lastModified);
+		}
+	}
+
+	/**
+	 * A bundled file and its pre-encoded response headers
+	 */
+	static final class Entry {
+		final ByteBuffer body;
+		final long length;
+		final long lastModified;
+		final String etag;
+		final byte[] header;
+		final byte[] notModifiedHeader;
+
+		// Compressed copies, or null if the bundle has none
+		Encoded gzip;
+		Encoded deflate;
+
+		Entry(ByteBuffer body, String contentType, long lastModified) {
+			this.body = body;
+			this.length = body.remaining();
+			this.lastModified = lastModified;
+			this.etag = HttpResponse.etag(length, lastModified);
+			this.header = HttpResponse.okHeader(contentType, length, etag, lastModified);
+			this.notModifiedHeader = HttpResponse.notModifiedHeader(etag, lastModified);
+		}
+
+		/**
+		 * Return the copy for a content coding chosen by the client
+		 */
+		Encoded encoded(String coding) {
+			if ("gzip".equals(coding)) {
+				return gzip;
+			}
+			if ("deflate".equals(coding)) {
+				return deflate;
+			}
+			return null;
+		}
+	}
+
+	private final Map<String, Entry> entries;
+
+	private Bundle(Map<String, Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * Map a bundle file and read its index. The file must be smaller than
+	 * 2GB, the most one MappedByteBuffer can hold.
+	 */
+	static Bundle open(String fileName) throws IOException {
+		MappedByteBuffer mapped;
+		FileChannel file = new RandomAccessFile(fileName, "r").getChannel();
+		try {
+			if (file.size() > Integer.MAX_VALUE) {
+				throw new IOException("Bundle " + fileName + " is larger than 2GB");
+			}
+			// The mapping stays valid after the channel is closed
+			mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+		} finally {
+			file.close();
+		}
+
+		if (mapped.remaining() < 8 || mapped.getInt(0) != MAGIC) {
+			throw new IOException(fileName + " is not a bundle");
+		}
+		int indexLength = mapped.getInt(4);
+		int dataStart = 8 + indexLength;
+		byte[] index = new byte[indexLength];
+		mapped.position(8);
+		mapped.get(index);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+		int count = in.readInt();
+		Map<String, Entry> entries = new HashMap<String, Entry>(count * 2);
+		for (int i = 0; i < count; i++) {
+			String path = in.readUTF();
+			String contentType = in.readUTF();
+			long lastModified = in.readLong();
+			ByteBuffer body = slice(mapped, dataStart, in.readLong(), in.readLong());
+			Entry entry = new Entry(body, contentType, lastModified);
+
+			int codings = in.readInt();
+			for (int j = 0; j < codings; j++) {
+				String coding = in.readUTF();
+				ByteBuffer encodedBody = slice(mapped, dataStart, in.readLong(), in.readLong());
+				Encoded encoded = new Encoded(coding, encodedBody, contentType, entry.etag, lastModified);
+				if (coding.equals("gzip")) {
+					entry.gzip = encoded;
+				}
+				else if (coding.equals("deflate")) {
+					entry.deflate = encoded;
+				}
+			}
+			entries.put(path, entry);
+		}
+		return new Bundle(entries);
+	}
+
+	/**
+	 * The bundled copy of a file, or null if it is not in the bundle
+	 */
+	Entry get(String fileName) {
+		return entries.get(ContentCache.normalize(fileName));
+	}
+
+	/**
+	 * Number of files in the bundle
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * A read-only view of [offset, offset + length) of the data
+	 */
+	private static ByteBuffer slice(MappedByteBuffer mapped, int dataStart, long offset, long length)
+		throws IOException
+	{
+		long start = dataStart + offset;
+		if (offset < 0 || length < 0 || start + length > mapped.capacity()) {
+			throw new IOException("Bundle entry out of bounds");
+		}
+		ByteBuffer view = mapped.duplicate();
+		view.limit((int) (start + length));
+		view.position((int) start);
+		return view.slice().asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Build step that packs every file under a directory into one bundle file
+ * for the server to map at startup (see Bundle for the layout). Text files
+ * also get gzip and deflate copies when those are smaller, as the content
+ * cache would make.
+ *
+ * Usage: java BundleBuilder <directory> <bundle file>
+ *
+ * The server is then started with -bundle <bundle file>, from the same
+ * directory the files would otherwise be served from.
+ *
+ */
+public class BundleBuilder {
+	public static void main(String args[]) throws Exception {
+		if (args.length != 2) {
+			System.out.println("Usage: java BundleBuilder <directory> <bundle file>");
+			return;
+		}
+		final Path root = Paths.get(args[0]);
+		final Path output = Paths.get(args[1]).toAbsolutePath();
+
+		// Collect the files in a stable order, leaving out the bundle itself
+		final List<Path> files = new ArrayList<Path>();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				if (attributes.isRegularFile() && !file.toAbsolutePath().equals(output)) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(files);
+
+		// Lay the bodies out one after the other while writing the index
+		ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		DataOutputStream index = new DataOutputStream(indexBytes);
+		List<byte[]> bodies = new ArrayList<byte[]>();
+		long offset = 0;
+		index.writeInt(files.size());
+		for (Path file : files) {
+			String path = ContentCache.normalize(root.relativize(file).toString());
+			String contentType = Http.contentType(path);
+			byte[] body = Files.readAllBytes(file);
+
+			index.writeUTF(path);
+			index.writeUTF(contentType);
+			index.writeLong(Files.getLastModifiedTime(file).toMillis());
+			index.writeLong(offset);
+			index.writeLong(body.length);
+			bodies.add(body);
+			offset += body.length;
+
+			List<String> codings = new ArrayList<String>();
+			List<byte[]> encodedBodies = new ArrayList<byte[]>();
+			if (HttpResponse.isCompressible(contentType)) {
+				for (String coding : new String[] { "gzip", "deflate" }) {
+					byte[] encoded = compress(coding, body);
+					if (encoded.length < body.length) {
+						codings.add(coding);
+						encodedBodies.add(encoded);
+					}
+				}
+			}
+			index.writeInt(codings.size());
+			for (int i = 0; i < codings.size(); i++) {
+				byte[] encoded = encodedBodies.get(i);
+				index.writeUTF(codings.get(i));
+				index.writeLong(offset);
+				index.writeLong(encoded.length);
+				bodies.add(encoded);
+				offset += encoded.length;
+			}
+		}
+		index.close();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output.toFile())));
+		try {
+			out.writeInt(Bundle.MAGIC);
+			out.writeInt(indexBytes.size());
+			indexBytes.writeTo(out);
+			for (byte[] body : bodies) {
+				out.write(body);
+			}
+		} finally {
+			out.close();
+		}
+		System.out.println("Packed " + files.size() + " files, " + offset + " bytes of data, into " + output);
+	}
+
+	private static byte[] compress(String coding, byte[] body) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 2 + 64);
+		OutputStream out = coding.equals("gzip") ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+		out.write(body);
+		out.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+
+/**
+ * The one deadline a connection has at any time, kept on a TimingWheel and
+ * moved as the connection changes state:
+ *
+ * 		idle	waiting for the first byte of a request, keepAliveMillis
+ * 		header	the whole request header must arrive within headerTimeoutMillis
+ * 		read	and no more than readTimeoutMillis may pass between its bytes
+ * 		write	no more than writeTimeoutMillis may pass without sending
+ * 				any of the response
+ *
+ * The header deadline is what stops a slowloris client, which keeps a
+ * connection open by sending a header a few bytes at a time. When a deadline
+ * passes it is counted in the metrics and the connection is closed.
+ *
+ */
+abstract class ConnectionDeadline extends TimingWheel.Timeout {
+	static final int IDLE = 0;
+	static final int HEADER = 1;
+	static final int READ = 2;
+	static final int WRITE = 3;
+	static final String[] NAMES = { "idle", "header", "read", "write" };
+
+	private final TimingWheel wheel;
+	private final ServerConfig config;
+	private final Metrics metrics;
+
+	private int kind;
+	private volatile boolean expired = false;
+
+	// When the first byte of the current request arrived, or 0
+	private long headerStart = 0;
+
+	ConnectionDeadline(TimingWheel wheel, ServerConfig config, Metrics metrics) {
+		this.wheel = wheel;
+		this.config = config;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Set the deadline for the next read, given how many bytes of the next
+	 * request are already buffered
+	 */
+	void reading(int buffered) {
+		long now = System.currentTimeMillis();
+		if (buffered == 0) {
+			headerStart = 0;
+			schedule(IDLE, now + config.keepAliveMillis);
+			return;
+		}
+		if (headerStart == 0) {
+			headerStart = now;
+		}
+		long header = headerStart + config.headerTimeoutMillis;
+		long read = now + config.readTimeoutMillis;
+		if (read < header) {
+			schedule(READ, read);
+		}
+		else {
+			schedule(HEADER, header);
+		}
+	}
+
+	/**
+	 * Set the deadline for sending the response to a complete request, and
+	 * move it on each time some of the response is sent, so that a large
+	 * file is not cut off on a slow client that keeps taking it
+	 */
+	void writing() {
+		headerStart = 0;
+		schedule(WRITE, System.currentTimeMillis() + config.writeTimeoutMillis);
+	}
+
+	void cancel() {
+		wheel.cancel(this);
+	}
+
+	/**
+	 * Whether the connection was closed because a deadline passed
+	 */
+	boolean hasExpired() {
+		return expired;
+	}
+
+	private void schedule(int kind, long deadlineMillis) {
+		this.kind = kind;
+		wheel.schedule(this, deadlineMillis);
+	}
+
+	@Override
+	final void expired() {
+		expired = true;
+		metrics.timedOut(kind);
+		close();
+	}
+
+	/**
+	 * Close the connection. Called on the thread advancing the wheel.
+	 */
+	abstract void close();
+}
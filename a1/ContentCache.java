@@ -0,0 +1,255 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * A bounded in-memory cache of the files served by the web server. Each entry
+ * holds the file's bytes together with its already encoded 200 and 304
+ * response headers (all but the Connection line), so a hit can be written to
+ * the socket without opening the file or building any Strings.
+ *
+ * Entries are evicted in least-recently-used order once the cache holds more
+ * than maxBytes. An entry is reloaded when the file's modification time or
+ * length changes; to keep hits free of filesystem calls this is only checked
+ * once every checkMillis per entry.
+ *
+ * Text files are also compressed with gzip and deflate when they are loaded,
+ * so each version of a file is compressed once rather than on every request.
+ *
+ */
+final class ContentCache {
+	/**
+	 * A compressed copy of a cached file, with its own ETag and headers
+	 */
+	static final class Encoded {
+		final String coding;
+		final byte[] body;
+		final String etag;
+		final byte[] header;
+		final byte[] notModifiedHeader;
+
+		Encoded(String coding, byte[] body, String contentType, String identityEtag, long lastModified) {
+			this.coding = coding;
+			this.body = body;
+			this.etag = HttpResponse.encodedEtag(identityEtag, coding);
+			this.header = HttpResponse.encodedHeader(contentType, coding, body.length, etag, lastModified);
+			this.notModifiedHeader = HttpResponse.notModifiedHeader(etag, lastModified);
+		}
+
+		int size() {
+			return header.length + notModifiedHeader.length + body.length;
+		}
+	}
+
+	/**
+	 * A cached file and its pre-encoded response headers
+	 */
+	static final class Entry {
+		final byte[] header;
+		final byte[] notModifiedHeader;
+		final byte[] body;
+		final long lastModified;
+		final long length;
+		final String etag;
+
+		// Compressed copies, or null if the file is not text or did not shrink
+		final Encoded gzip;
+		final Encoded deflate;
+
+		// When we last compared lastModified with the file on disk
+		volatile long checkedAt;
+
+		Entry(String fileName, byte[] body, long lastModified, long checkedAt) {
+			this.body = body;
+			this.lastModified = lastModified;
+			this.length = body.length;
+			this.etag = HttpResponse.etag(length, lastModified);
+			String contentType = Http.contentType(fileName);
+			this.header = HttpResponse.okHeader(contentType, length, etag, lastModified);
+			this.notModifiedHeader = HttpResponse.notModifiedHeader(etag, lastModified);
+			this.checkedAt = checkedAt;
+
+			if (HttpResponse.isCompressible(contentType)) {
+				gzip = compress("gzip", contentType);
+				deflate = compress("deflate", contentType);
+			}
+			else {
+				gzip = null;
+				deflate = null;
+			}
+		}
+
+		/**
+		 * Return the copy for a content coding chosen by the client
+		 */
+		Encoded encoded(String coding) {
+			if ("gzip".equals(coding)) {
+				return gzip;
+			}
+			if ("deflate".equals(coding)) {
+				return deflate;
+			}
+			return null;
+		}
+
+		int size() {
+			int size = header.length + notModifiedHeader.length + body.length;
+			if (gzip != null) {
+				size += gzip.size();
+			}
+			if (deflate != null) {
+				size += deflate.size();
+			}
+			return size;
+		}
+
+		/**
+		 * Compress the body, returning null if that does not make it smaller
+		 */
+		private Encoded compress(String coding, String contentType) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 2 + 64);
+			try {
+				OutputStream out = coding.equals("gzip") ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+				out.write(body);
+				out.close();
+			} catch (IOException e) {
+				return null;
+			}
+			if (bytes.size() >= body.length) {
+				return null;
+			}
+			return new Encoded(coding, bytes.toByteArray(), contentType, etag, lastModified);
+		}
+	}
+
+	private final long maxBytes;
+	private final long maxFileBytes;
+	private final long checkMillis;
+
+	// Access-ordered, so iteration starts at the least recently used entry
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private long totalBytes = 0;
+
+	// Lookups answered from memory, and ones that had to read the disk
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Create a cache holding at most maxBytes, skipping files larger than
+	 * maxFileBytes (those are better sent with transferTo)
+	 */
+	public ContentCache(long maxBytes, long maxFileBytes, long checkMillis) {
+		this.maxBytes = maxBytes;
+		this.maxFileBytes = Math.min(maxFileBytes, maxBytes);
+		this.checkMillis = checkMillis;
+	}
+
+	/**
+	 * Look up a file, loading it into the cache if needed. Returns null if the
+	 * file does not exist or is not cacheable, in which case the caller should
+	 * serve it from disk.
+	 */
+	public Entry get(String fileName) throws IOException {
+		if (maxBytes <= 0) {
+			misses.increment();
+			return null;
+		}
+		String key = normalize(fileName);
+		long now = System.currentTimeMillis();
+
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		if (entry != null && now - entry.checkedAt < checkMillis) {
+			hits.increment();
+			return entry;
+		}
+
+		// Either a miss or time to revalidate: look at the file on disk
+		File file = new File(key);
+		long lastModified = file.lastModified();
+		long length = file.length();
+		if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+			entry.checkedAt = now;
+			hits.increment();
+			return entry;
+		}
+		misses.increment();
+		if (!file.isFile() || length > maxFileBytes) {
+			remove(key);
+			return null;
+		}
+
+		byte[] body;
+		try {
+			body = Files.readAllBytes(file.toPath());
+		} catch (NoSuchFileException e) {
+			remove(key);
+			return null;
+		}
+		entry = new Entry(key, body, lastModified, now);
+		put(key, entry);
+		return entry;
+	}
+
+	/**
+	 * Number of bytes currently held
+	 */
+	public synchronized long size() {
+		return totalBytes;
+	}
+
+	/**
+	 * Lookups answered from memory since the server started
+	 */
+	long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Lookups that went to the disk, including files that are not cached
+	 */
+	long misses() {
+		return misses.sum();
+	}
+
+	private synchronized void put(String key, Entry entry) {
+		Entry old = entries.put(key, entry);
+		if (old != null) {
+			totalBytes -= old.size();
+		}
+		totalBytes += entry.size();
+
+		// Evict least recently used entries until we fit again
+		Iterator<Entry> lru = entries.values().iterator();
+		while (totalBytes > maxBytes && lru.hasNext()) {
+			Entry victim = lru.next();
+			totalBytes -= victim.size();
+			lru.remove();
+		}
+	}
+
+	private synchronized void remove(String key) {
+		Entry old = entries.remove(key);
+		if (old != null) {
+			totalBytes -= old.size();
+		}
+	}
+
+	/**
+	 * Collapse "." and ".." segments so that different spellings of the same
+	 * path share one entry
+	 */
+	static String normalize(String fileName) {
+		return "./" + Paths.get(fileName).normalize().toString().replace(File.separatorChar, '/');
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.nio.*;
+
+/**
+ * Microbenchmarks for the per-request work of choosing a content type and
+ * building a 200 OK header, both with Strings (HttpResponse.okHeader(), as
+ * done for files when they are cached) and with HeaderWriter straight into
+ * a direct buffer (as done for every uncached response). For each it prints
+ * the bytes allocated and the time taken per operation.
+ *
+ * Usage: java HeaderBenchmark [iterations]
+ *
+ */
+public class HeaderBenchmark {
+	static final String[] FILES = { "./index.html", "./mystyle.css", "./mcgill_0.gif", "./TR02a.jpg", "./a1.zip" };
+	static final long LENGTH = 23456;
+	static final long LAST_MODIFIED = 1417458600000L;
+
+	// Keeps the JIT from discarding the work
+	static long sink = 0;
+
+	/**
+	 * One operation to measure
+	 */
+	static abstract class Case {
+		final String name;
+
+		Case(String name) {
+			this.name = name;
+		}
+
+		abstract void run(int iterations);
+	}
+
+	public static void main(String args[]) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final String etag = HttpResponse.etag(LENGTH, LAST_MODIFIED);
+		final ByteBuffer head = ByteBuffer.allocateDirect(1024);
+
+		Case[] cases = {
+			new Case("contentType") {
+				void run(int iterations) {
+					for (int i = 0; i < iterations; i++) {
+						sink += Http.contentType(FILES[i % FILES.length]).length();
+					}
+				}
+			},
+			new Case("okHeader (String)") {
+				void run(int iterations) {
+					for (int i = 0; i < iterations; i++) {
+						String contentType = Http.contentType(FILES[i % FILES.length]);
+						sink += HttpResponse.okHeader(contentType, LENGTH + i, etag, LAST_MODIFIED).length;
+					}
+				}
+			},
+			new Case("HeaderWriter (direct)") {
+				void run(int iterations) {
+					for (int i = 0; i < iterations; i++) {
+						String contentType = Http.contentType(FILES[i % FILES.length]);
+						head.clear();
+						HeaderWriter.start(head, "200 OK", contentType, LENGTH + i);
+						HeaderWriter.field(head, "Accept-Ranges", "bytes");
+						if (HttpResponse.isCompressible(contentType)) {
+							HeaderWriter.field(head, "Vary", "Accept-Encoding");
+						}
+						HeaderWriter.validators(head, etag, LAST_MODIFIED);
+						sink += head.position();
+					}
+				}
+			},
+		};
+
+		// Warm up every case before measuring
+		for (Case c : cases) {
+			c.run(iterations / 5);
+		}
+
+		System.out.println(iterations + " operations each");
+		for (Case c : cases) {
+			measure(c, iterations);
+		}
+	}
+
+	static void measure(Case c, int iterations) {
+		long allocatedBefore = ParserBenchmark.allocatedBytes();
+		long start = System.nanoTime();
+		c.run(iterations);
+		long elapsed = System.nanoTime() - start;
+		long allocated = ParserBenchmark.allocatedBytes() - allocatedBefore;
+
+		System.out.printf("%-28s %8.1f bytes/op %8.1f ns/op%n", c.name,
+			(double) allocated / iterations, (double) elapsed / iterations);
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.nio.*;
+
+/**
+ * Encodes response header fields straight into a ByteBuffer, for headers
+ * that change with every request (byte ranges, files that are not cached).
+ * Numbers and dates are written digit by digit, so no Strings or byte
+ * arrays are made on the way. The output matches HttpResponse.header().
+ *
+ */
+final class HeaderWriter {
+	private static final String[] DAYS = { "Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed" };
+	private static final String[] MONTHS =
+		{ "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+	private HeaderWriter() {
+	}
+
+	/**
+	 * The status line, Content-type and Content-Length
+	 */
+	static void start(ByteBuffer out, String status, String contentType, long contentLength) {
+		ascii(out, "HTTP/1.1 ");
+		ascii(out, status);
+		crlf(out);
+		ascii(out, "Content-type: ");
+		ascii(out, contentType);
+		crlf(out);
+		ascii(out, "Content-Length: ");
+		decimal(out, contentLength);
+		crlf(out);
+	}
+
+	/**
+	 * The status line alone, for responses without a body
+	 */
+	static void status(ByteBuffer out, String status) {
+		ascii(out, "HTTP/1.1 ");
+		ascii(out, status);
+		crlf(out);
+	}
+
+	static void field(ByteBuffer out, String name, String value) {
+		ascii(out, name);
+		ascii(out, ": ");
+		ascii(out, value);
+		crlf(out);
+	}
+
+	/**
+	 * ETag and Last-Modified
+	 */
+	static void validators(ByteBuffer out, String etag, long lastModified) {
+		field(out, "ETag", etag);
+		ascii(out, "Last-Modified: ");
+		httpDate(out, lastModified);
+		crlf(out);
+	}
+
+	/**
+	 * "Content-Range: bytes first-last/length". A negative first means no
+	 * range could be satisfied, and writes "*" in place of the range.
+	 */
+	static void contentRange(ByteBuffer out, long first, long last, long length) {
+		ascii(out, "Content-Range: bytes ");
+		if (first < 0) {
+			out.put((byte) '*');
+		}
+		else {
+			decimal(out, first);
+			out.put((byte) '-');
+			decimal(out, last);
+		}
+		out.put((byte) '/');
+		decimal(out, length);
+		crlf(out);
+	}
+
+	static void ascii(ByteBuffer out, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			out.put((byte) s.charAt(i));
+		}
+	}
+
+	static void crlf(ByteBuffer out) {
+		out.put((byte) '\r');
+		out.put((byte) '\n');
+	}
+
+	static void decimal(ByteBuffer out, long value) {
+		if (value < 0) {
+			out.put((byte) '-');
+			value = -value;
+		}
+		long divisor = 1;
+		while (divisor <= value / 10) {
+			divisor *= 10;
+		}
+		while (divisor > 0) {
+			out.put((byte) ('0' + value / divisor % 10));
+			divisor /= 10;
+		}
+	}
+
+	/**
+	 * An HTTP date, e.g. "Mon, 01 Dec 2014 18:30:00 GMT", as formatted by
+	 * HttpResponse.HTTP_DATE
+	 */
+	static void httpDate(ByteBuffer out, long millis) {
+		long seconds = Math.floorDiv(millis, 1000);
+		long days = Math.floorDiv(seconds, 86400);
+		int secondOfDay = Math.floorMod(seconds, 86400);
+
+		// Civil date from days since 1970-01-01 (Howard Hinnant's algorithm)
+		long z = days + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		ascii(out, DAYS[Math.floorMod(days, 7)]);
+		ascii(out, ", ");
+		twoDigits(out, day);
+		out.put((byte) ' ');
+		ascii(out, MONTHS[month - 1]);
+		out.put((byte) ' ');
+		decimal(out, year);
+		out.put((byte) ' ');
+		twoDigits(out, secondOfDay / 3600);
+		out.put((byte) ':');
+		twoDigits(out, secondOfDay / 60 % 60);
+		out.put((byte) ':');
+		twoDigits(out, secondOfDay % 60);
+		ascii(out, " GMT");
+	}
+
+	private static void twoDigits(ByteBuffer out, int value) {
+		out.put((byte) ('0' + value / 10));
+		out.put((byte) ('0' + value % 10));
+	}
+}
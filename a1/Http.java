@@ -0,0 +1,42 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+
+/**
+ * Constants and helpers of the HTTP protocol shared by the request handlers,
+ * the responses and the tools built around the server.
+ *
+ */
+final class Http {
+	final static String CRLF = "\r\n";
+	final static String NOT_FOUND_MESSAGE = "<HTML><HEAD><TITLE>404 Not Found</TITLE></HEAD><BODY>404 Not Found</BODY></HTML>";
+
+	private Http() {
+	}
+
+	/**
+	 * Returns the appropriate MIME-type string based on the suffix of the
+	 * appended file
+	 * @param fileName
+	 * @return
+	 */
+	static String contentType(String fileName) {
+		if (fileName.endsWith(".htm") || fileName.endsWith(".html")) {
+			return "text/html";
+		}
+		// STEP 3b: Add code here to deal with GIFs, JPEGs, and CSS
+		else if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")){
+			return "image/jpeg";
+		}
+		else if (fileName.endsWith(".gif")){
+			return "image/gif";
+		}
+		else if (fileName.endsWith(".css")){
+			return "text/css";
+		}
+		return "application/octet-stream";
+	}
+}
@@ -0,0 +1,778 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+
+/**
+ * Works out the response to a request for a file: 200 with the whole file
+ * (compressed if the client accepts it and a compressed copy is cached), 304
+ * when the client's copy is still current, 206 with one or more byte ranges,
+ * or 404/416 errors. Both the threaded handler and the event loops
+ * build their responses here and only differ in how they write them.
+ *
+ * A response is an encoded header (everything but the Connection line, which
+ * the connection adds) followed by body parts. Each part is either bytes in
+ * memory or a region of the open file. Headers that do not change are
+ * encoded once and kept as byte arrays; the others are encoded by
+ * HeaderWriter straight into a direct buffer borrowed from the BufferPool.
+ *
+ * To send the response, the connection calls prepare() and then writeTo()
+ * until it returns true, which moves the connection's write deadline on as
+ * the response goes out. The header and every run of in-memory parts go out
+ * in one gathering write; file regions are handed to the kernel with
+ * transferTo() when writing to a socket, and otherwise copied through a
+ * pooled buffer sized to the region.
+ *
+ */
+final class HttpResponse {
+	static final String CRLF = Http.CRLF;
+
+	// Pre-encoded response pieces. The Connection line also ends the header.
+	static final byte[] KEEP_ALIVE_LINE = ("Connection: keep-alive" + CRLF + CRLF).getBytes();
+	static final byte[] CLOSE_LINE = ("Connection: close" + CRLF + CRLF).getBytes();
+	static final byte[] NOT_FOUND_HEADER = header("404 Not Found", "text/html", Http.NOT_FOUND_MESSAGE.length(), "");
+	static final byte[] NOT_FOUND_BODY = Http.NOT_FOUND_MESSAGE.getBytes();
+	static final byte[] BAD_REQUEST_HEADER = header("400 Bad Request", "text/html", 0, "");
+	static final byte[] TOO_LARGE_HEADER = header("431 Request Header Fields Too Large", "text/html", 0, "");
+	static final String SERVICE_UNAVAILABLE_MESSAGE =
+		"<HTML><HEAD><TITLE>503 Service Unavailable</TITLE></HEAD><BODY>503 Service Unavailable</BODY></HTML>";
+
+	// Reports the server's own counters instead of a file
+	static final String METRICS_PATH = "/metrics";
+
+	// Separates the parts of a multipart/byteranges body
+	static final String BOUNDARY = "ECSE414_BYTERANGES";
+	static final String MULTIPART_TYPE = "multipart/byteranges; boundary=" + BOUNDARY;
+
+	// Most ranges one request may ask for; a Range header with more is
+	// ignored and the whole file sent
+	static final int MAX_RANGES = 16;
+
+	// Size of the buffer a header is encoded into
+	static final int HEAD_BYTES = 1024;
+
+	// Most of a file given to one transferTo(), so that a blocking send
+	// to a slow client returns now and then to move its write deadline on
+	static final long TRANSFER_CHUNK = 256 * 1024;
+
+	// Smallest and largest buffer a file region is copied through when it
+	// cannot be transferred
+	static final int MIN_COPY_BYTES = 1024;
+	static final int MAX_COPY_BYTES = 64 * 1024;
+
+	// HTTP dates, e.g. "Mon, 01 Dec 2014 18:30:00 GMT"
+	static final DateTimeFormatter HTTP_DATE =
+		DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	/**
+	 * One piece of the body: bytes[offset, offset+length) if bytes is set,
+	 * the same region of buffer (a bundle slice) if buffer is set, otherwise
+	 * the same region of the file
+	 */
+	static final class Part {
+		final byte[] bytes;
+		final ByteBuffer buffer;
+		final long offset;
+		final long length;
+
+		Part(byte[] bytes, long offset, long length) {
+			this.bytes = bytes;
+			this.buffer = null;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		Part(ByteBuffer buffer, long offset, long length) {
+			this.bytes = null;
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * Whether the part is in memory rather than in the file
+		 */
+		boolean inMemory() {
+			return bytes != null || buffer != null;
+		}
+
+		/**
+		 * A buffer over the part's bytes with a position of its own, for a
+		 * writer to drain. Parts in memory may be shared by many connections.
+		 */
+		ByteBuffer view() {
+			if (bytes != null) {
+				return ByteBuffer.wrap(bytes, (int) offset, (int) length);
+			}
+			ByteBuffer view = buffer.duplicate();
+			view.limit((int) (offset + length));
+			view.position((int) offset);
+			return view;
+		}
+	}
+
+	int status;
+	final List<Part> parts = new ArrayList<Part>();
+
+	// The header, either pre-encoded or encoded into a pooled buffer
+	byte[] header;
+	ByteBuffer head;
+
+	// The file that file parts are read from, or null
+	FileChannel file;
+
+	// Write progress: the header buffer, then a buffer over each in-memory
+	// part or null for each file part, and how much of the current file
+	// part has been sent
+	private BufferPool pool;
+	private ByteBuffer[] pending;
+	private int next;
+	private long fileSent;
+
+	// Bytes of the current file part read but not yet written, when it is
+	// copied rather than transferred
+	private ByteBuffer copy;
+
+	/**
+	 * Build the response for a GET of the request's URI, serving the file
+	 * from the bundle or the cache when possible
+	 */
+	static HttpResponse forRequest(ParsedRequest request, ServerContext context) throws IOException {
+		if (request.uri.equals(METRICS_PATH)) {
+			return metrics(context);
+		}
+		ContentCache cache = context.cache;
+
+		// Prepend a "." to the file name so that the file request is in the
+		// current directory
+		String fileName = "." + request.uri;
+		HttpResponse response = new HttpResponse();
+
+		// Files in the bundle never touch the disk; others are looked up in
+		// the cache and then the file system as usual. A URI that is not a
+		// valid path, e.g. one holding a NUL, is refused.
+		Bundle.Entry bundled;
+		ContentCache.Entry cached;
+		try {
+			bundled = context.bundle != null ? context.bundle.get(fileName) : null;
+			cached = bundled == null ? cache.get(fileName) : null;
+		} catch (InvalidPathException e) {
+			return error(400, BAD_REQUEST_HEADER);
+		}
+		long length;
+		long lastModified;
+		String etag;
+		if (bundled != null) {
+			length = bundled.length;
+			lastModified = bundled.lastModified;
+			etag = bundled.etag;
+		}
+		else if (cached != null) {
+			length = cached.length;
+			lastModified = cached.lastModified;
+			etag = cached.etag;
+		}
+		else {
+			try {
+				response.file = new FileInputStream(fileName).getChannel();
+			} catch (FileNotFoundException e) {
+				response.status = 404;
+				response.header = NOT_FOUND_HEADER;
+				response.addBytes(NOT_FOUND_BODY);
+				return response;
+			}
+			length = response.file.size();
+			lastModified = new File(fileName).lastModified();
+			etag = etag(length, lastModified);
+		}
+
+		// Send a precompressed copy to clients that accept it. Range requests
+		// always get the identity bytes.
+		if (bundled != null && request.range == null && request.acceptEncoding != null) {
+			Bundle.Encoded encoded = bundled.encoded(chooseEncoding(request.acceptEncoding));
+			if (encoded != null) {
+				if (isNotModified(request, encoded.etag, lastModified)) {
+					response.status = 304;
+					response.header = encoded.notModifiedHeader;
+				}
+				else {
+					response.status = 200;
+					response.header = encoded.header;
+					response.parts.add(new Part(encoded.body, 0, encoded.body.remaining()));
+				}
+				return response;
+			}
+		}
+		if (cached != null && request.range == null && request.acceptEncoding != null) {
+			ContentCache.Encoded encoded = cached.encoded(chooseEncoding(request.acceptEncoding));
+			if (encoded != null) {
+				if (isNotModified(request, encoded.etag, lastModified)) {
+					response.status = 304;
+					response.header = encoded.notModifiedHeader;
+				}
+				else {
+					response.status = 200;
+					response.header = encoded.header;
+					response.addBytes(encoded.body);
+				}
+				return response;
+			}
+		}
+
+		// Conditional GET: nothing to send if the client has this version
+		if (isNotModified(request, etag, lastModified)) {
+			response.close();
+			response.status = 304;
+			if (bundled != null) {
+				response.header = bundled.notModifiedHeader;
+			}
+			else if (cached != null) {
+				response.header = cached.notModifiedHeader;
+			}
+			else {
+				ByteBuffer head = response.startHead(context.buffers);
+				HeaderWriter.status(head, "304 Not Modified");
+				HeaderWriter.validators(head, etag, lastModified);
+			}
+			return response;
+		}
+
+		// Ranges only apply if If-Range (when sent) still names this version
+		List<long[]> ranges = null;
+		if (request.range != null && (request.ifRange == null || request.ifRange.equals(etag))) {
+			ranges = parseRanges(request.range, length);
+		}
+
+		String contentType = Http.contentType(fileName);
+		if (ranges == null) {
+			response.status = 200;
+			if (bundled != null) {
+				response.header = bundled.header;
+			}
+			else if (cached != null) {
+				response.header = cached.header;
+			}
+			else {
+				ByteBuffer head = response.startHead(context.buffers);
+				HeaderWriter.start(head, "200 OK", contentType, length);
+				HeaderWriter.field(head, "Accept-Ranges", "bytes");
+				if (isCompressible(contentType)) {
+					HeaderWriter.field(head, "Vary", "Accept-Encoding");
+				}
+				HeaderWriter.validators(head, etag, lastModified);
+			}
+			response.addContent(bundled, cached, 0, length);
+		}
+		else if (ranges.isEmpty()) {
+			response.close();
+			response.status = 416;
+			ByteBuffer head = response.startHead(context.buffers);
+			HeaderWriter.start(head, "416 Range Not Satisfiable", "text/html", 0);
+			HeaderWriter.contentRange(head, -1, -1, length);
+		}
+		else if (ranges.size() == 1) {
+			long[] range = ranges.get(0);
+			long count = range[1] - range[0] + 1;
+			response.status = 206;
+			ByteBuffer head = response.startHead(context.buffers);
+			HeaderWriter.start(head, "206 Partial Content", contentType, count);
+			HeaderWriter.contentRange(head, range[0], range[1], length);
+			HeaderWriter.validators(head, etag, lastModified);
+			response.addContent(bundled, cached, range[0], count);
+		}
+		else {
+			// Several ranges go out as a multipart/byteranges body, each part
+			// with its own small header
+			long total = 0;
+			for (long[] range : ranges) {
+				byte[] partHeader = (CRLF + "--" + BOUNDARY + CRLF
+					+ "Content-type: " + contentType + CRLF
+					+ contentRange(range, length) + CRLF).getBytes();
+				long count = range[1] - range[0] + 1;
+				response.addBytes(partHeader);
+				response.addContent(bundled, cached, range[0], count);
+				total += partHeader.length + count;
+			}
+			byte[] end = (CRLF + "--" + BOUNDARY + "--" + CRLF).getBytes();
+			response.addBytes(end);
+			total += end.length;
+			response.status = 206;
+			ByteBuffer head = response.startHead(context.buffers);
+			HeaderWriter.start(head, "206 Partial Content", MULTIPART_TYPE, total);
+			HeaderWriter.validators(head, etag, lastModified);
+		}
+		return response;
+	}
+
+	/**
+	 * A response with no body, for requests the parser refused
+	 */
+	static HttpResponse error(int status, byte[] header) {
+		HttpResponse response = new HttpResponse();
+		response.status = status;
+		response.header = header;
+		return response;
+	}
+
+	/**
+	 * The server's counters in the Prometheus text format: the request
+	 * metrics, content cache hits, in pool mode the worker pools' threads,
+	 * queues and rejections (summed over the acceptors), the buffer pool, and
+	 * dropped access log records
+	 */
+	static HttpResponse metrics(ServerContext context) {
+		StringBuilder body = new StringBuilder(2048);
+		context.metrics.format(body);
+		long hits = context.cache.hits();
+		long misses = context.cache.misses();
+		body.append("# TYPE cache_hits_total counter\n");
+		body.append("cache_hits_total ").append(hits).append('\n');
+		body.append("# TYPE cache_misses_total counter\n");
+		body.append("cache_misses_total ").append(misses).append('\n');
+		body.append("# TYPE cache_hit_ratio gauge\n");
+		body.append("cache_hit_ratio ").append(hits + misses > 0 ? (double) hits / (hits + misses) : 0.0).append('\n');
+		if (context.pools != null) {
+			long threads = 0, active = 0, depth = 0, capacity = 0, rejected = 0;
+			for (WorkerPool pool : context.pools) {
+				threads += pool.threads();
+				active += pool.active();
+				depth += pool.queueDepth();
+				capacity += pool.queueCapacity();
+				rejected += pool.rejected();
+			}
+			body.append("# TYPE pool_threads gauge\n");
+			body.append("pool_threads ").append(threads).append('\n');
+			body.append("# TYPE pool_active_threads gauge\n");
+			body.append("pool_active_threads ").append(active).append('\n');
+			body.append("# TYPE pool_queue_depth gauge\n");
+			body.append("pool_queue_depth ").append(depth).append('\n');
+			body.append("# TYPE pool_queue_capacity gauge\n");
+			body.append("pool_queue_capacity ").append(capacity).append('\n');
+			body.append("# TYPE pool_rejected_total counter\n");
+			body.append("pool_rejected_total ").append(rejected).append('\n');
+		}
+		body.append("# TYPE buffer_pool_allocated_total counter\n");
+		body.append("buffer_pool_allocated_total ").append(context.buffers.allocated()).append('\n');
+		body.append("# TYPE buffer_pool_free gauge\n");
+		body.append("buffer_pool_free ").append(context.buffers.free()).append('\n');
+		body.append("# TYPE access_log_dropped_total counter\n");
+		body.append("access_log_dropped_total ").append(context.accessLog.dropped()).append('\n');
+
+		byte[] bytes = body.toString().getBytes();
+		HttpResponse response = new HttpResponse();
+		response.status = 200;
+		response.header = header("200 OK", "text/plain; version=0.0.4", bytes.length, "Cache-Control: no-cache" + CRLF);
+		response.addBytes(bytes);
+		return response;
+	}
+
+	/**
+	 * The complete response sent when the server is too busy to take a
+	 * connection, including the Connection line and the body
+	 */
+	static byte[] serviceUnavailable(int retryAfter) {
+		String response = new String(header("503 Service Unavailable", "text/html",
+			SERVICE_UNAVAILABLE_MESSAGE.length(), "Retry-After: " + retryAfter + CRLF))
+			+ "Connection: close" + CRLF + CRLF
+			+ SERVICE_UNAVAILABLE_MESSAGE;
+		return response.getBytes();
+	}
+
+	/**
+	 * Total number of body bytes
+	 */
+	long bodyLength() {
+		long total = 0;
+		for (int i = 0; i < parts.size(); i++) {
+			total += parts.get(i).length;
+		}
+		return total;
+	}
+
+	/**
+	 * Get ready to send the response: finish the header with the Connection
+	 * line in a pooled buffer, and line up a buffer for every in-memory part
+	 */
+	void prepare(BufferPool pool, byte[] connectionLine) {
+		if (head == null) {
+			this.pool = pool;
+			head = pool.acquire(header.length + connectionLine.length);
+			head.put(header);
+		}
+		head.put(connectionLine);
+		head.flip();
+
+		pending = new ByteBuffer[parts.size() + 1];
+		pending[0] = head;
+		for (int i = 0; i < parts.size(); i++) {
+			Part part = parts.get(i);
+			pending[i + 1] = part.inMemory() ? part.view() : null;
+		}
+		next = 0;
+		fileSent = 0;
+	}
+
+	/**
+	 * Send as much of the prepared response as the channel takes. Returns
+	 * true once all of it has gone, false if a non-blocking channel filled
+	 * up (call again when it is writable). Each time some of it is sent
+	 * the write deadline is moved on.
+	 */
+	boolean writeTo(GatheringByteChannel channel, ConnectionDeadline deadline) throws IOException {
+		boolean blocking = isBlocking(channel);
+		while (next < pending.length) {
+			if (pending[next] == null && !(channel instanceof SocketChannel)) {
+				if (!copyTo(channel, blocking, parts.get(next - 1), deadline)) {
+					return false;
+				}
+				next++;
+				continue;
+			}
+			if (pending[next] == null) {
+				// Let the kernel copy the file to the socket. A non-blocking
+				// transferTo() stops when the send buffer is full.
+				Part part = parts.get(next - 1);
+				while (fileSent < part.length) {
+					long sent = file.transferTo(part.offset + fileSent,
+						Math.min(part.length - fileSent, TRANSFER_CHUNK), channel);
+					if (sent == 0) {
+						// Nothing is sent past the end of the file, so if it
+						// was truncated after the header went out the body
+						// can never be finished: abort the connection
+						if (blocking || part.offset + fileSent >= file.size()) {
+							throw new EOFException("File truncated while sending");
+						}
+						return false;
+					}
+					fileSent += sent;
+					deadline.writing();
+				}
+				fileSent = 0;
+				next++;
+				continue;
+			}
+
+			// Write the run of buffers up to the next file part in one call
+			int end = next;
+			while (end < pending.length && pending[end] != null) {
+				end++;
+			}
+			if (channel.write(pending, next, end - next) > 0) {
+				deadline.writing();
+			}
+			while (next < end && !pending[next].hasRemaining()) {
+				next++;
+			}
+			if (next < end && !blocking) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fallback for channels transferTo() cannot hand the file to directly:
+	 * read the part through a pooled buffer, from 1k for a small file up to
+	 * 64k, and write it. Returns false if a non-blocking channel filled up.
+	 */
+	private boolean copyTo(WritableByteChannel channel, boolean blocking, Part part, ConnectionDeadline deadline)
+		throws IOException
+	{
+		if (copy == null) {
+			copy = pool.acquire((int) Math.max(MIN_COPY_BYTES, Math.min(part.length, MAX_COPY_BYTES)));
+			copy.flip();
+		}
+		while (true) {
+			if (!copy.hasRemaining()) {
+				if (fileSent == part.length) {
+					pool.release(copy);
+					copy = null;
+					fileSent = 0;
+					return true;
+				}
+				copy.clear();
+				copy.limit((int) Math.min(copy.capacity(), part.length - fileSent));
+				if (file.read(copy, part.offset + fileSent) <= 0) {
+					throw new EOFException("File truncated while sending");
+				}
+				fileSent += copy.position();
+				copy.flip();
+			}
+			if (channel.write(copy) > 0) {
+				deadline.writing();
+			}
+			else if (!blocking) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Whether writes to the channel wait until they are done; only a
+	 * selectable channel can be non-blocking
+	 */
+	private static boolean isBlocking(Channel channel) {
+		return !(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking();
+	}
+
+	/**
+	 * Close the file, if any, and give back the header buffer. Writers call
+	 * this once the body is sent.
+	 */
+	void close() throws IOException {
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+		if (head != null && pool != null) {
+			pool.release(head);
+			head = null;
+		}
+		if (copy != null) {
+			pool.release(copy);
+			copy = null;
+		}
+	}
+
+	/**
+	 * Borrow the buffer a changing header is encoded into
+	 */
+	private ByteBuffer startHead(BufferPool pool) {
+		this.pool = pool;
+		head = pool.acquire(HEAD_BYTES);
+		return head;
+	}
+
+	private void addBytes(byte[] bytes) {
+		parts.add(new Part(bytes, 0, bytes.length));
+	}
+
+	/**
+	 * Add a slice of the file, from the bundled or cached copy if there is one
+	 */
+	private void addContent(Bundle.Entry bundled, ContentCache.Entry cached, long offset, long length) {
+		if (bundled != null) {
+			parts.add(new Part(bundled.body, offset, length));
+		}
+		else {
+			parts.add(new Part(cached != null ? cached.body : null, offset, length));
+		}
+	}
+
+	/**
+	 * A 304 is sent if If-None-Match lists our ETag, or, when the client sent
+	 * no ETags, if the file has not changed since If-Modified-Since
+	 */
+	static boolean isNotModified(ParsedRequest request, String etag, long lastModified) {
+		if (request.ifNoneMatch != null) {
+			for (String tag : request.ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (request.ifModifiedSince != null) {
+			try {
+				long since = Instant.from(HTTP_DATE.parse(request.ifModifiedSince)).toEpochMilli();
+				// HTTP dates only have whole seconds
+				return lastModified / 1000 <= since / 1000;
+			} catch (DateTimeException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Pick gzip or deflate from an Accept-Encoding header, honouring q-values
+	 * and preferring gzip on a tie. Returns null if neither is acceptable.
+	 */
+	static String chooseEncoding(String acceptEncoding) {
+		String choice = null;
+		double best = 0;
+		for (String item : acceptEncoding.split(",")) {
+			String[] params = item.trim().split(";");
+			String coding = params[0].trim().toLowerCase(Locale.US);
+			if (coding.equals("*")) {
+				coding = "gzip";
+			}
+			if (!coding.equals("gzip") && !coding.equals("deflate")) {
+				continue;
+			}
+
+			double q = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(param.substring(2));
+					} catch (NumberFormatException e) {
+						q = 0;
+					}
+				}
+			}
+			if (q > best || (q == best && q > 0 && coding.equals("gzip"))) {
+				best = q;
+				choice = coding;
+			}
+		}
+		return choice;
+	}
+
+	/**
+	 * Text is worth compressing; images are already compressed
+	 */
+	static boolean isCompressible(String contentType) {
+		return contentType.startsWith("text/");
+	}
+
+	/**
+	 * Parse a "bytes=a-b,c-,-d" Range header into inclusive [first, last]
+	 * pairs, in order and with overlapping or adjacent ranges merged, so the
+	 * parts never add up to more than the file. Returns null if the header
+	 * is malformed or asks for more than MAX_RANGES ranges (it is then
+	 * ignored) and an empty list if no range overlaps the file.
+	 */
+	static List<long[]> parseRanges(String header, long length) {
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+		String[] specs = header.substring(6).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<long[]> ranges = new ArrayList<long[]>();
+		try {
+			for (String spec : specs) {
+				spec = spec.trim();
+				int dash = spec.indexOf('-');
+				if (dash < 0) {
+					return null;
+				}
+				long first;
+				long last;
+				if (dash == 0) {
+					// "-d" means the last d bytes
+					long suffix = Long.parseLong(spec.substring(1));
+					first = Math.max(0, length - suffix);
+					last = length - 1;
+					if (suffix == 0) {
+						continue;
+					}
+				}
+				else {
+					first = Long.parseLong(spec.substring(0, dash));
+					if (dash == spec.length() - 1) {
+						// "a-" runs to the end of the file
+						last = length - 1;
+					}
+					else {
+						last = Long.parseLong(spec.substring(dash + 1));
+						if (last < first) {
+							return null;
+						}
+						last = Math.min(last, length - 1);
+					}
+				}
+				if (first < length) {
+					ranges.add(new long[] { first, last });
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return merge(ranges);
+	}
+
+	/**
+	 * Sort ranges by their first byte and join those that overlap or touch
+	 */
+	private static List<long[]> merge(List<long[]> ranges) {
+		if (ranges.size() < 2) {
+			return ranges;
+		}
+		Collections.sort(ranges, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return Long.compare(a[0], b[0]);
+			}
+		});
+		List<long[]> merged = new ArrayList<long[]>();
+		long[] last = ranges.get(0);
+		merged.add(last);
+		for (int i = 1; i < ranges.size(); i++) {
+			long[] range = ranges.get(i);
+			if (range[0] <= last[1] + 1) {
+				last[1] = Math.max(last[1], range[1]);
+			}
+			else {
+				last = range;
+				merged.add(last);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * ETag made from the file's length and modification time, which is what
+	 * the cache uses to decide whether a file changed
+	 */
+	static String etag(long length, long lastModified) {
+		return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+	}
+
+	static String validators(String etag, long lastModified) {
+		return "ETag: " + etag + CRLF
+			+ "Last-Modified: " + HTTP_DATE.format(Instant.ofEpochMilli(lastModified)) + CRLF;
+	}
+
+	/**
+	 * A compressed copy is a different representation, so it gets its own
+	 * ETag, e.g. "189-14a07dddc20-gzip"
+	 */
+	static String encodedEtag(String etag, String coding) {
+		return etag.substring(0, etag.length() - 1) + "-" + coding + "\"";
+	}
+
+	static byte[] okHeader(String contentType, long length, String etag, long lastModified) {
+		String vary = isCompressible(contentType) ? "Vary: Accept-Encoding" + CRLF : "";
+		return header("200 OK", contentType, length, "Accept-Ranges: bytes" + CRLF + vary + validators(etag, lastModified));
+	}
+
+	static byte[] encodedHeader(String contentType, String coding, long length, String etag, long lastModified) {
+		return header("200 OK", contentType, length,
+			"Content-Encoding: " + coding + CRLF + "Vary: Accept-Encoding" + CRLF + validators(etag, lastModified));
+	}
+
+	static byte[] notModifiedHeader(String etag, long lastModified) {
+		return ("HTTP/1.1 304 Not Modified" + CRLF + validators(etag, lastModified)).getBytes();
+	}
+
+	private static String contentRange(long[] range, long length) {
+		return "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + CRLF;
+	}
+
+	/**
+	 * Encode the status line, Content-type, Content-Length and any extra
+	 * fields of a response. The Connection line, which also ends the header,
+	 * is written after it.
+	 */
+	static byte[] header(String status, String contentType, long contentLength, String extraFields) {
+		String header = "HTTP/1.1 " + status + CRLF
+			+ "Content-type: " + contentType + CRLF
+			+ "Content-Length: " + contentLength + CRLF
+			+ extraFields;
+		return header.getBytes();
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.util.concurrent.atomic.*;
+
+/**
+ * Histogram of latencies in microseconds with HdrHistogram's bucket layout:
+ * each power of two is split into HALF equal slices, so any recorded value
+ * is known to within about 6% whatever its size. Each bucket is a LongAdder,
+ * so many threads can record at once without contention or allocation.
+ *
+ * Readers take a snapshot of the counts with counts() and work on that, so
+ * that all the percentiles they report come from the same moment.
+ *
+ */
+final class LatencyHistogram {
+	// Slices per power of two; the first 2 * HALF values get a bucket each
+	private static final int SUB_BITS = 5;
+	private static final int HALF = 1 << (SUB_BITS - 1);
+
+	// Latencies above this many microseconds (about 71 minutes) are clamped
+	static final long MAX_MICROS = (1L << 32) - 1;
+	static final int BUCKETS = bucket(MAX_MICROS) + 1;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+
+	LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	void record(long micros) {
+		micros = Math.min(Math.max(micros, 0), MAX_MICROS);
+		buckets[bucket(micros)].increment();
+		sum.add(micros);
+	}
+
+	/**
+	 * Sum of all recorded latencies, in microseconds
+	 */
+	long sum() {
+		return sum.sum();
+	}
+
+	/**
+	 * A snapshot of the count in each bucket
+	 */
+	long[] counts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+
+	static long total(long[] counts) {
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * The latency that the given fraction of the recorded values did not
+	 * exceed, to the resolution of the histogram
+	 */
+	static long percentile(long[] counts, double quantile) {
+		long total = total(counts);
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return highestInBucket(i);
+			}
+		}
+		return MAX_MICROS;
+	}
+
+	/**
+	 * Correct a closed-loop measurement for coordinated omission, as
+	 * HdrHistogram's copyCorrectedForCoordinatedOmission() does. A client
+	 * that waits for each response before sending the next request stops
+	 * sending while the server stalls, so the requests it would have sent
+	 * meanwhile are never measured. For each value longer than the expected
+	 * interval between requests, this adds the values those missing
+	 * requests would have seen: value - interval, value - 2 * interval, ...
+	 */
+	static long[] corrected(long[] counts, long expectedMicros) {
+		long[] corrected = counts.clone();
+		if (expectedMicros <= 0) {
+			return corrected;
+		}
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			long value = highestInBucket(i);
+			for (long missing = value - expectedMicros; missing >= expectedMicros; missing -= expectedMicros) {
+				corrected[bucket(missing)] += counts[i];
+			}
+		}
+		return corrected;
+	}
+
+	/**
+	 * Histogram bucket of a latency in microseconds. Values below 2 * HALF
+	 * have a bucket each; above that, a value with its highest bit at
+	 * position e keeps its top SUB_BITS bits and drops the shift below them.
+	 */
+	private static int bucket(long micros) {
+		if (micros < 2 * HALF) {
+			return (int) micros;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+		return shift * HALF + (int) (micros >>> shift);
+	}
+
+	/**
+	 * Largest latency in microseconds that falls in a bucket
+	 */
+	private static long highestInBucket(int bucket) {
+		if (bucket < 2 * HALF) {
+			return bucket;
+		}
+		int shift = bucket / HALF - 1;
+		long top = bucket - shift * HALF;
+		return ((top + 1) << shift) - 1;
+	}
+}
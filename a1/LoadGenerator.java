@@ -0,0 +1,356 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * HTTP load generator for measuring the web server on loopback. Each of
+ * -connections threads sends GET requests for files picked at random from
+ * the mix, over one persistent connection or a new connection per request.
+ *
+ * In the closed loop (the default) every thread sends its next request as
+ * soon as the last response is in. In the open loop the threads share a
+ * fixed schedule of -rate requests per second, and each request's latency
+ * is counted from when it should have been sent, so a server stall shows up
+ * in the latency of every request it delayed.
+ *
+ * It reports the throughput and latency percentiles as measured and
+ * corrected for coordinated omission: in the open loop from the schedule,
+ * in the closed loop by HdrHistogram's back-filling with the median latency
+ * as the expected interval between requests.
+ *
+ * Usage: java LoadGenerator [-name value]...
+ * 		-host localhost	-port 6789		-loop closed|open
+ * 		-connections 16	-rate 1000		-keepAlive true
+ * 		-seconds 10		-warmup 2
+ * 		-files a,b,c	(default: the html, css, gif and jpg files in the
+ * 						current directory, e.g. run it from a1/)
+ *
+ */
+public class LoadGenerator {
+	static final String CRLF = "\r\n";
+	static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999, 1.0 };
+
+	// Closed loop: wait after a failed request before the next, doubling
+	// from the first to the most while failures continue
+	static final long FIRST_BACKOFF_NANOS = 10000000L;
+	static final long MAX_BACKOFF_NANOS = 1000000000L;
+
+	String host = "localhost";
+	int port = 6789;
+	boolean openLoop = false;
+	int connections = 16;
+	int rate = 1000;
+	boolean keepAlive = true;
+	int seconds = 10;
+	int warmup = 2;
+	String[] files;
+
+	// Results of the measured part of the run
+	final LatencyHistogram measured = new LatencyHistogram();
+	final LatencyHistogram corrected = new LatencyHistogram();
+	final LongAdder requests = new LongAdder();
+	final LongAdder bytes = new LongAdder();
+	final LongAdder errors = new LongAdder();
+	final LongAdder notOk = new LongAdder();
+
+	public static void main(String args[]) throws Exception {
+		LoadGenerator generator = parse(args);
+		generator.run();
+	}
+
+	static LoadGenerator parse(String[] args) {
+		LoadGenerator generator = new LoadGenerator();
+		for (int i = 0; i < args.length; i += 2) {
+			String name = args[i];
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for option " + name);
+			}
+			String value = args[i + 1];
+
+			if (name.equals("-host")) {
+				generator.host = value;
+			}
+			else if (name.equals("-port")) {
+				generator.port = Integer.parseInt(value);
+			}
+			else if (name.equals("-loop")) {
+				if (!value.equals("closed") && !value.equals("open")) {
+					throw new IllegalArgumentException("Unknown loop " + value);
+				}
+				generator.openLoop = value.equals("open");
+			}
+			else if (name.equals("-connections")) {
+				generator.connections = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-rate")) {
+				generator.rate = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-keepAlive")) {
+				generator.keepAlive = Boolean.parseBoolean(value);
+			}
+			else if (name.equals("-seconds")) {
+				generator.seconds = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-warmup")) {
+				generator.warmup = Math.max(0, Integer.parseInt(value));
+			}
+			else if (name.equals("-files")) {
+				generator.files = value.split(",");
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+		if (generator.files == null) {
+			generator.files = defaultFiles();
+		}
+		return generator;
+	}
+
+	/**
+	 * The files in the current directory the server has a content type for
+	 */
+	static String[] defaultFiles() {
+		List<String> files = new ArrayList<String>();
+		String[] names = new File(".").list();
+		Arrays.sort(names);
+		for (String name : names) {
+			if (new File(name).isFile() && !Http.contentType(name).equals("application/octet-stream")) {
+				files.add(name);
+			}
+		}
+		if (files.isEmpty()) {
+			throw new IllegalArgumentException("No files to request, give them with -files");
+		}
+		return files.toArray(new String[files.size()]);
+	}
+
+	void run() throws InterruptedException {
+		System.out.println((openLoop ? "Open loop at " + rate + " requests/s" : "Closed loop") + ", "
+			+ connections + " connections, " + (keepAlive ? "keep-alive" : "a connection per request")
+			+ ", " + files.length + " files, " + seconds + " s after " + warmup + " s warm-up");
+
+		long start = System.nanoTime();
+		long measureStart = start + warmup * 1000000000L;
+		long end = measureStart + seconds * 1000000000L;
+		Thread[] threads = new Thread[connections];
+		for (int i = 0; i < connections; i++) {
+			threads[i] = new Thread(new Client(i, start, measureStart, end), "client-" + i);
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		report();
+	}
+
+	void report() {
+		long count = requests.sum();
+		System.out.printf("Requests    %d (%d errors, %d not 2xx)%n", count, errors.sum(), notOk.sum());
+		System.out.printf("Throughput  %.1f requests/s, %.2f MB/s%n",
+			(double) count / seconds, bytes.sum() / 1e6 / seconds);
+
+		long[] raw = measured.counts();
+		long[] fixed = openLoop
+			? corrected.counts()
+			: LatencyHistogram.corrected(raw, LatencyHistogram.percentile(raw, 0.5));
+		System.out.printf("Latency us  %9s %9s %9s %9s %9s%n", "p50", "p90", "p99", "p99.9", "max");
+		printPercentiles("measured", raw);
+		printPercentiles("corrected", fixed);
+	}
+
+	static void printPercentiles(String name, long[] counts) {
+		System.out.printf("%-11s", name);
+		for (double quantile : QUANTILES) {
+			System.out.printf(" %9d", LatencyHistogram.percentile(counts, quantile));
+		}
+		System.out.println();
+	}
+
+	/**
+	 * One connection's worth of requests
+	 */
+	final class Client implements Runnable {
+		private final Random random;
+		private final long measureStart;
+		private final long end;
+
+		// Open loop: this client's share of the schedule
+		private final long intervalNanos;
+		private long nextSend;
+
+		// Closed loop: wait before the next request after a failure
+		private long backoffNanos = 0;
+
+		private Socket socket;
+		private InputStream in;
+		private OutputStream out;
+		private final byte[] buffer = new byte[65536];
+		private final byte[][] requestBytes;
+
+		Client(int index, long start, long measureStart, long end) {
+			this.random = new Random(index);
+			this.measureStart = measureStart;
+			this.end = end;
+			this.intervalNanos = (long) (1e9 * connections / rate);
+			this.nextSend = start + intervalNanos * index / connections;
+
+			requestBytes = new byte[files.length][];
+			for (int i = 0; i < files.length; i++) {
+				String request = "GET /" + files[i] + " HTTP/1.1" + CRLF + "Host: " + host + CRLF
+					+ (keepAlive ? "" : "Connection: close" + CRLF) + CRLF;
+				requestBytes[i] = request.getBytes();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				long intended;
+				if (openLoop) {
+					intended = nextSend;
+					nextSend += intervalNanos;
+					long wait;
+					while ((wait = intended - System.nanoTime()) > 0) {
+						LockSupport.parkNanos(wait);
+					}
+				}
+				else {
+					intended = System.nanoTime();
+				}
+				if (intended >= end) {
+					break;
+				}
+
+				long sent = System.nanoTime();
+				long received;
+				try {
+					received = exchange(requestBytes[random.nextInt(files.length)]);
+				} catch (IOException e) {
+					errors.increment();
+					closeSocket();
+					backOff();
+					continue;
+				}
+				backoffNanos = 0;
+				long done = System.nanoTime();
+				if (sent >= measureStart && done <= end) {
+					measured.record((done - sent) / 1000);
+					corrected.record((done - intended) / 1000);
+					requests.increment();
+					bytes.add(received);
+				}
+				if (!keepAlive) {
+					closeSocket();
+				}
+			}
+			closeSocket();
+		}
+
+		/**
+		 * In the closed loop, wait before trying again after a failure, so
+		 * that a server refusing connections is not hammered by a busy loop.
+		 * The open loop keeps to its schedule instead.
+		 */
+		private void backOff() {
+			if (openLoop) {
+				return;
+			}
+			backoffNanos = backoffNanos == 0 ? FIRST_BACKOFF_NANOS : Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+			long wake = Math.min(System.nanoTime() + backoffNanos, end);
+			long wait;
+			while ((wait = wake - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+		}
+
+		/**
+		 * Send one request and read the whole response, returning its size
+		 */
+		private long exchange(byte[] request) throws IOException {
+			if (socket == null) {
+				socket = new Socket(host, port);
+				socket.setTcpNoDelay(true);
+				in = socket.getInputStream();
+				out = socket.getOutputStream();
+			}
+			out.write(request);
+
+			// Read until the end of the header, then the rest of the body
+			int filled = 0;
+			int headerEnd = -1;
+			while (headerEnd < 0) {
+				int n = in.read(buffer, filled, buffer.length - filled);
+				if (n == -1) {
+					throw new EOFException("Connection closed before the response header");
+				}
+				filled += n;
+				headerEnd = headerEnd(buffer, filled);
+				if (headerEnd < 0 && filled == buffer.length) {
+					throw new IOException("Response header too long");
+				}
+			}
+			if (!(buffer[9] == '2')) {
+				notOk.increment();
+			}
+			String header = new String(buffer, 0, headerEnd, StandardCharsets.ISO_8859_1);
+			long length = contentLength(header);
+			long remaining = length - (filled - headerEnd);
+			while (remaining > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n == -1) {
+					throw new EOFException("Connection closed in the response body");
+				}
+				remaining -= n;
+			}
+			// The server closes a connection after its -maxRequests
+			if (header.contains("Connection: close")) {
+				closeSocket();
+			}
+			return headerEnd + length;
+		}
+
+		private void closeSocket() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+				socket = null;
+			}
+		}
+	}
+
+	/**
+	 * Index just past the blank line ending the header, or -1
+	 */
+	static int headerEnd(byte[] buffer, int filled) {
+		for (int i = 3; i < filled; i++) {
+			if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The Content-Length of a response header, or 0 if it has none
+	 */
+	static long contentLength(String header) {
+		for (String line : header.split(CRLF)) {
+			if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+				return Long.parseLong(line.substring(15).trim());
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counters for every request the server answers: latency (in a
+ * LatencyHistogram), body bytes, status codes and open connections, and
+ * connections closed by deadlines. Recording only bumps LongAdders, which
+ * spread contended updates over per-thread cells, so handler threads and
+ * event loops never fight over one counter and the hot path allocates
+ * nothing once the cells exist. The totals are only added up when the
+ * counters are read.
+ *
+ * The counters are read in the Prometheus text format, see format().
+ *
+ */
+final class Metrics {
+	// Status codes outside 100-599 are counted as 599
+	private static final int MAX_STATUS = 599;
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder[] statusCounts = new LongAdder[MAX_STATUS + 1];
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder openConnections = new LongAdder();
+	private final LongAdder[] timeouts = new LongAdder[ConnectionDeadline.NAMES.length];
+
+	Metrics() {
+		for (int i = 0; i <= MAX_STATUS; i++) {
+			statusCounts[i] = new LongAdder();
+		}
+		for (int i = 0; i < timeouts.length; i++) {
+			timeouts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record one answered request
+	 */
+	void record(int status, long bodyBytes, long elapsedNanos) {
+		latency.record(elapsedNanos / 1000);
+		statusCounts[status >= 100 && status <= MAX_STATUS ? status : MAX_STATUS].increment();
+		bytesSent.add(bodyBytes);
+	}
+
+	void connectionOpened() {
+		openConnections.increment();
+	}
+
+	void connectionClosed() {
+		openConnections.decrement();
+	}
+
+	/**
+	 * Record a connection closed because a ConnectionDeadline of the given
+	 * kind passed
+	 */
+	void timedOut(int kind) {
+		timeouts[kind].increment();
+	}
+
+	/**
+	 * Write the counters in the Prometheus text exposition format
+	 */
+	void format(StringBuilder out) {
+		long[] counts = latency.counts();
+
+		out.append("# TYPE http_request_duration_seconds summary\n");
+		for (double quantile : QUANTILES) {
+			out.append("http_request_duration_seconds{quantile=\"").append(quantile).append("\"} ")
+				.append(LatencyHistogram.percentile(counts, quantile) / 1e6).append('\n');
+		}
+		out.append("http_request_duration_seconds_sum ").append(latency.sum() / 1e6).append('\n');
+		out.append("http_request_duration_seconds_count ").append(LatencyHistogram.total(counts)).append('\n');
+
+		out.append("# TYPE http_responses_total counter\n");
+		for (int status = 0; status <= MAX_STATUS; status++) {
+			long count = statusCounts[status].sum();
+			if (count > 0) {
+				out.append("http_responses_total{code=\"").append(status).append("\"} ").append(count).append('\n');
+			}
+		}
+
+		out.append("# TYPE http_response_bytes_total counter\n");
+		out.append("http_response_bytes_total ").append(bytesSent.sum()).append('\n');
+
+		out.append("# TYPE http_open_connections gauge\n");
+		out.append("http_open_connections ").append(openConnections.sum()).append('\n');
+
+		out.append("# TYPE http_timeouts_total counter\n");
+		for (int kind = 0; kind < timeouts.length; kind++) {
+			out.append("http_timeouts_total{kind=\"").append(ConnectionDeadline.NAMES[kind]).append("\"} ")
+				.append(timeouts[kind].sum()).append('\n');
+		}
+	}
+}
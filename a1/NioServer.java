@@ -0,0 +1,337 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking version of the web server. Rather than spawning a thread for
+ * every connection, a fixed number of event loops (one per core by default)
+ * each run a Selector and multiplex many connections. Acceptor threads (the
+ * main thread alone by default) accept connections and hand them out
+ * round-robin to their own group of loops.
+ *
+ * Responses are built by HttpResponse, as in the threaded server.
+ * Connections are persistent, and pipelined requests are answered in order.
+ *
+ */
+final class NioServer {
+	private final ServerSocketChannel[] serverChannels;
+	private final EventLoop[] loops;
+
+	/**
+	 * Open the listening sockets and create the event loops. There are at
+	 * least as many loops as acceptors, so that each acceptor has one.
+	 */
+	public NioServer(ServerContext context) throws IOException {
+		ServerConfig config = context.config;
+		serverChannels = WebServer.openListeners(config.port, config.acceptors);
+
+		loops = new EventLoop[Math.max(config.loops, config.acceptors)];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(context);
+		}
+	}
+
+	/**
+	 * Start the event loops and acceptor threads, then accept connections
+	 * forever on the calling thread
+	 */
+	public void serve() throws IOException {
+		for (int i = 0; i < loops.length; i++) {
+			Thread thread = new Thread(loops[i], "nio-loop-" + i);
+			thread.start();
+		}
+		for (int i = 1; i < serverChannels.length; i++) {
+			Thread thread = new Thread(acceptor(i), "nio-acceptor-" + i);
+			thread.start();
+		}
+		accept(0);
+	}
+
+	/**
+	 * Accept connections on acceptor i's socket and hand them round-robin to
+	 * its loops: those whose index is i modulo the number of acceptors. A
+	 * failed accept, e.g. when the process is out of file descriptors, is
+	 * logged and retried after a short wait; only a closed socket ends it.
+	 */
+	private void accept(int acceptor) throws IOException {
+		ServerSocketChannel serverChannel = serverChannels[acceptor];
+		int next = acceptor;
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (ClosedChannelException e) {
+				throw e;
+			} catch (IOException e) {
+				System.out.println(e);
+				WebServer.backOff();
+				continue;
+			}
+			loops[next].register(channel);
+			next += serverChannels.length;
+			if (next >= loops.length) {
+				next = acceptor;
+			}
+		}
+	}
+
+	private Runnable acceptor(final int acceptor) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					accept(acceptor);
+				} catch (IOException e) {
+					System.out.println(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * A single selector thread serving any number of connections
+	 */
+	private static final class EventLoop implements Runnable {
+		private final Selector selector;
+		private final ServerContext context;
+		private final ServerConfig config;
+
+		// Connections accepted by the main thread, waiting to be registered
+		private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+
+		// Deadlines of this loop's connections, advanced by the loop itself
+		private final TimingWheel timeouts;
+
+		EventLoop(ServerContext context) throws IOException {
+			this.context = context;
+			this.config = context.config;
+			selector = Selector.open();
+			timeouts = new TimingWheel(config.timerTickMillis, ServerContext.WHEEL_SLOTS);
+		}
+
+		/**
+		 * Hand a new connection to this loop. Called from the accepting thread.
+		 */
+		void register(SocketChannel channel) {
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					selector.select(timeouts.tickMillis());
+					registerPending();
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+
+						Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isValid() && key.isReadable()) {
+								connection.onReadable();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.onWritable();
+							}
+						} catch (IOException e) {
+							connection.close();
+						} catch (RuntimeException e) {
+							// A bug serving one connection must not take
+							// down the others on this loop
+							System.out.println(e);
+							connection.close();
+						}
+					}
+					timeouts.advance(System.currentTimeMillis());
+				} catch (IOException e) {
+					System.out.println(e);
+				} catch (RuntimeException e) {
+					System.out.println(e);
+				}
+			}
+		}
+
+		/**
+		 * Register the connections handed over since the last select()
+		 */
+		private void registerPending() {
+			SocketChannel channel;
+			while ((channel = pending.poll()) != null) {
+				try {
+					channel.configureBlocking(false);
+					SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+					key.attach(new Connection(channel, key, context, timeouts));
+				} catch (IOException e) {
+					try {
+						channel.close();
+					} catch (IOException ignored) {
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * State of one client connection: the request bytes read so far, and the
+	 * response still to be written.
+	 */
+	private static final class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final ServerContext context;
+		private final ServerConfig config;
+
+		// Request bytes, parsed in place
+		private final ByteBuffer in;
+		private final RequestParser parser;
+		private final ParsedRequest request = new ParsedRequest();
+
+		// Response being sent; it keeps track of how much has been written
+		private HttpResponse response;
+
+		// Whether to wait for another request once this response is sent
+		private boolean keepAlive;
+		private int served = 0;
+		private long requestStart;
+		private boolean parsed;
+
+		// Closes the connection if the client is too slow
+		private final ConnectionDeadline deadline;
+
+		Connection(SocketChannel channel, SelectionKey key, ServerContext context, TimingWheel timeouts) {
+			this.channel = channel;
+			this.key = key;
+			this.context = context;
+			this.config = context.config;
+			in = context.buffers.acquire(config.maxHeaderBytes);
+			parser = new RequestParser(config.maxHeaderBytes, config.maxHeaders);
+			deadline = new ConnectionDeadline(timeouts, config, context.metrics) {
+				@Override
+				void close() {
+					Connection.this.close();
+				}
+			};
+			deadline.reading(0);
+			context.metrics.connectionOpened();
+		}
+
+		/**
+		 * Read request bytes until the blank line ending the header is seen,
+		 * then prepare the response and start writing it
+		 */
+		void onReadable() throws IOException {
+			if (channel.read(in) == -1) {
+				close();
+				return;
+			}
+
+			if (nextRequest()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+				onWritable();
+			}
+			else {
+				deadline.reading(in.position());
+			}
+		}
+
+		/**
+		 * Write as much of the response as the socket accepts. When it has
+		 * all been sent, either close the connection or move on to the next
+		 * request, which may already be buffered if the client pipelines.
+		 */
+		void onWritable() throws IOException {
+			while (true) {
+				if (!response.writeTo(channel, deadline)) {
+					return;
+				}
+				response.close();
+				long elapsed = System.nanoTime() - requestStart;
+				context.accessLog.log(channel.socket().getInetAddress(), parsed ? request : null, response.status, response.bodyLength(), elapsed);
+				context.metrics.record(response.status, response.bodyLength(), elapsed);
+				response = null;
+
+				if (!keepAlive) {
+					close();
+					return;
+				}
+				if (!nextRequest()) {
+					if (channel.isOpen()) {
+						key.interestOps(SelectionKey.OP_READ);
+						deadline.reading(in.position());
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * If a complete request header is buffered, take it out of the buffer
+		 * and prepare its response. Returns false if there is none yet.
+		 * Malformed or oversized requests get an error response, after which
+		 * the connection is closed.
+		 */
+		private boolean nextRequest() throws IOException {
+			int result = parser.parse(in);
+			if (result == RequestParser.INCOMPLETE) {
+				return false;
+			}
+
+			requestStart = System.nanoTime();
+			deadline.writing();
+			parsed = result == RequestParser.DONE;
+			if (parsed) {
+				parser.fill(in, request);
+				parser.consume(in);
+				served++;
+				keepAlive = served < config.maxRequests && request.wantsKeepAlive();
+				response = HttpResponse.forRequest(request, context);
+			}
+			else {
+				keepAlive = false;
+				response = result == RequestParser.TOO_LARGE
+					? HttpResponse.error(431, HttpResponse.TOO_LARGE_HEADER)
+					: HttpResponse.error(400, HttpResponse.BAD_REQUEST_HEADER);
+			}
+
+			response.prepare(context.buffers, keepAlive ? HttpResponse.KEEP_ALIVE_LINE : HttpResponse.CLOSE_LINE);
+			return true;
+		}
+
+		void close() {
+			if (!channel.isOpen()) {
+				return;
+			}
+			context.metrics.connectionClosed();
+			deadline.cancel();
+			key.cancel();
+			// Each resource is given back even if closing another fails
+			try {
+				if (response != null) {
+					response.close();
+				}
+			} catch (IOException ignored) {
+			} finally {
+				try {
+					context.buffers.release(in);
+				} finally {
+					try {
+						channel.close();
+					} catch (IOException ignored) {
+					}
+				}
+			}
+		}
+	}
+}
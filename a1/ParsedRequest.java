@@ -0,0 +1,43 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+
+/**
+ * The parts of an HTTP request message that the server acts on: the request
+ * line and the few header fields that change the response. Other header
+ * fields are ignored. Filled in by RequestParser, and reused for every
+ * request on a connection.
+ *
+ */
+final class ParsedRequest {
+	String method;
+	String uri;
+	String version = "HTTP/1.0";
+
+	// Header fields we understand, or null if the client did not send them
+	String connection;
+	String ifNoneMatch;
+	String ifModifiedSince;
+	String range;
+	String ifRange;
+	String acceptEncoding;
+
+	/**
+	 * HTTP/1.1 connections are persistent unless the client sends
+	 * "Connection: close"; HTTP/1.0 ones only if it sends "keep-alive"
+	 */
+	boolean wantsKeepAlive() {
+		if (connection != null) {
+			if (connection.equalsIgnoreCase("close")) {
+				return false;
+			}
+			if (connection.equalsIgnoreCase("keep-alive")) {
+				return true;
+			}
+		}
+		return version.equals("HTTP/1.1");
+	}
+}
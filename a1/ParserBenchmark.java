@@ -0,0 +1,115 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Microbenchmark comparing the old request parsing (BufferedReader.readLine()
+ * and StringTokenizer, as HttpRequest used to do) with RequestParser. For a
+ * typical browser request it prints the bytes allocated and the time taken
+ * per request by each.
+ *
+ * Usage: java ParserBenchmark [iterations]
+ *
+ */
+public class ParserBenchmark {
+	static final String REQUEST = "GET /index.html HTTP/1.1\r\n"
+		+ "Host: localhost:6789\r\n"
+		+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:33.0) Gecko/20100101 Firefox/33.0\r\n"
+		+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+		+ "Accept-Language: en-US,en;q=0.5\r\n"
+		+ "Accept-Encoding: gzip, deflate\r\n"
+		+ "Referer: http://localhost:6789/index2.html\r\n"
+		+ "Connection: keep-alive\r\n"
+		+ "Cache-Control: max-age=0\r\n"
+		+ "\r\n";
+
+	// Keeps the JIT from discarding the work
+	static long sink = 0;
+
+	public static void main(String args[]) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		byte[] requestBytes = REQUEST.getBytes("ISO-8859-1");
+
+		// Warm up both paths before measuring
+		readLineParse(requestBytes, iterations / 5);
+		stateMachineParse(requestBytes, iterations / 5);
+
+		System.out.println("Parsing a " + requestBytes.length + " byte request, " + iterations + " times");
+		measure("readLine + StringTokenizer", requestBytes, iterations, false);
+		measure("RequestParser", requestBytes, iterations, true);
+	}
+
+	static void measure(String name, byte[] requestBytes, int iterations, boolean stateMachine) throws Exception {
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		if (stateMachine) {
+			stateMachineParse(requestBytes, iterations);
+		}
+		else {
+			readLineParse(requestBytes, iterations);
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		System.out.printf("%-28s %8.1f bytes/request %8.1f ns/request%n", name,
+			(double) allocated / iterations, (double) elapsed / iterations);
+	}
+
+	/**
+	 * The parsing HttpRequest used to do for every request
+	 */
+	static void readLineParse(byte[] requestBytes, int iterations) throws IOException {
+		for (int i = 0; i < iterations; i++) {
+			BufferedReader userInput = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(requestBytes)));
+			String requestLine = userInput.readLine();
+			String connection = null;
+			while (true) {
+				String headerLine = userInput.readLine();
+				if (headerLine == null || headerLine.equals("")) {
+					break;
+				}
+				if (headerLine.regionMatches(true, 0, "Connection:", 0, 11)) {
+					connection = headerLine.substring(11).trim();
+				}
+			}
+			StringTokenizer tokens = new StringTokenizer(requestLine);
+			tokens.nextToken();
+			String fileName = "." + tokens.nextToken();
+			sink += fileName.length() + connection.length();
+		}
+	}
+
+	/**
+	 * RequestParser on a reused buffer, as the server now does
+	 */
+	static void stateMachineParse(byte[] requestBytes, int iterations) {
+		ByteBuffer in = ByteBuffer.allocate(8192);
+		RequestParser parser = new RequestParser(8192, 64);
+		ParsedRequest request = new ParsedRequest();
+		for (int i = 0; i < iterations; i++) {
+			in.clear();
+			in.put(requestBytes);
+			if (parser.parse(in) != RequestParser.DONE) {
+				throw new IllegalStateException("Benchmark request did not parse");
+			}
+			parser.fill(in, request);
+			parser.consume(in);
+			sink += request.uri.length() + request.connection.length();
+		}
+	}
+
+	/**
+	 * Bytes allocated so far by this thread, from the HotSpot thread MXBean
+	 */
+	static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,346 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.nio.*;
+
+/**
+ * Incremental HTTP request parser working directly on the bytes of a
+ * connection's input buffer. It walks a small state machine (method, URI,
+ * version, then header names and values) and only remembers where each piece
+ * starts and ends, so parsing a request allocates nothing. Strings are made
+ * afterwards, by fill(), and only for the URI and the header values that the
+ * server acts on.
+ *
+ * The buffer is used in "write mode": the request bytes are in [0, position).
+ * Bytes may arrive in any number of reads; parse() picks up where it left off.
+ *
+ */
+final class RequestParser {
+	// Results of parse()
+	static final int INCOMPLETE = 0;
+	static final int DONE = 1;
+	static final int BAD_REQUEST = 2;
+	static final int TOO_LARGE = 3;
+
+	// States of the state machine
+	private static final int S_START = 0;
+	private static final int S_METHOD = 1;
+	private static final int S_URI = 2;
+	private static final int S_VERSION = 3;
+	private static final int S_LINE_LF = 4;
+	private static final int S_HEADER_START = 5;
+	private static final int S_NAME = 6;
+	private static final int S_VALUE_START = 7;
+	private static final int S_VALUE = 8;
+	private static final int S_HEADER_LF = 9;
+	private static final int S_END_LF = 10;
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+	private static final byte SP = ' ';
+	private static final byte HT = '\t';
+
+	private final int maxHeaderBytes;
+	private final int maxHeaders;
+
+	private int state = S_START;
+	private int cursor = 0;
+
+	// Slices of the request line, as [start, end) indexes into the buffer
+	private int methodStart, methodEnd;
+	private int uriStart, uriEnd;
+	private int versionStart, versionEnd;
+
+	// Slices of each header name and value
+	private int headerCount = 0;
+	private final int[] nameStart, nameEnd, valueStart, valueEnd;
+
+	/**
+	 * Create a parser that rejects requests whose header is longer than
+	 * maxHeaderBytes or has more than maxHeaders fields
+	 */
+	public RequestParser(int maxHeaderBytes, int maxHeaders) {
+		this.maxHeaderBytes = maxHeaderBytes;
+		this.maxHeaders = maxHeaders;
+		nameStart = new int[maxHeaders];
+		nameEnd = new int[maxHeaders];
+		valueStart = new int[maxHeaders];
+		valueEnd = new int[maxHeaders];
+	}
+
+	/**
+	 * Scan the bytes received since the last call. Returns DONE once the
+	 * blank line ending the header has been seen, INCOMPLETE if more bytes
+	 * are needed, or BAD_REQUEST / TOO_LARGE if the request must be refused.
+	 */
+	int parse(ByteBuffer in) {
+		int end = in.position();
+		while (cursor < end) {
+			if (cursor >= maxHeaderBytes) {
+				return TOO_LARGE;
+			}
+			byte b = in.get(cursor);
+
+			switch (state) {
+			case S_START:
+				// Ignore empty lines left over between pipelined requests
+				if (b != CR && b != LF) {
+					methodStart = cursor;
+					state = S_METHOD;
+				}
+				break;
+
+			case S_METHOD:
+				if (b == SP && cursor == methodStart) {
+					return BAD_REQUEST;
+				}
+				else if (b == SP) {
+					methodEnd = cursor;
+					uriStart = cursor + 1;
+					state = S_URI;
+				}
+				else if (b == CR || b == LF) {
+					return BAD_REQUEST;
+				}
+				break;
+
+			case S_URI:
+				if (b == SP) {
+					uriEnd = cursor;
+					versionStart = cursor + 1;
+					state = S_VERSION;
+				}
+				else if (b == CR || b == LF) {
+					// A request line without a version, as in HTTP/0.9
+					uriEnd = cursor;
+					versionStart = versionEnd = cursor;
+					state = b == CR ? S_LINE_LF : S_HEADER_START;
+				}
+				break;
+
+			case S_VERSION:
+				if (b == CR || b == LF) {
+					versionEnd = cursor;
+					state = b == CR ? S_LINE_LF : S_HEADER_START;
+				}
+				break;
+
+			case S_LINE_LF:
+				if (b != LF) {
+					return BAD_REQUEST;
+				}
+				if (uriEnd == uriStart) {
+					return BAD_REQUEST;
+				}
+				state = S_HEADER_START;
+				break;
+
+			case S_HEADER_START:
+				if (b == CR) {
+					state = S_END_LF;
+				}
+				else if (b == LF) {
+					return done();
+				}
+				else {
+					if (headerCount == maxHeaders) {
+						return TOO_LARGE;
+					}
+					nameStart[headerCount] = cursor;
+					state = S_NAME;
+				}
+				break;
+
+			case S_NAME:
+				if (b == ':') {
+					nameEnd[headerCount] = cursor;
+					state = S_VALUE_START;
+				}
+				else if (b == CR || b == LF) {
+					return BAD_REQUEST;
+				}
+				break;
+
+			case S_VALUE_START:
+				if (b == SP || b == HT) {
+					break;
+				}
+				valueStart[headerCount] = cursor;
+				if (b == CR || b == LF) {
+					valueEnd[headerCount] = cursor;
+					headerCount++;
+					state = b == CR ? S_HEADER_LF : S_HEADER_START;
+				}
+				else {
+					state = S_VALUE;
+				}
+				break;
+
+			case S_VALUE:
+				if (b == CR || b == LF) {
+					// Trim trailing whitespace from the value
+					int valueLast = cursor;
+					while (valueLast > valueStart[headerCount]
+							&& (in.get(valueLast - 1) == SP || in.get(valueLast - 1) == HT)) {
+						valueLast--;
+					}
+					valueEnd[headerCount] = valueLast;
+					headerCount++;
+					state = b == CR ? S_HEADER_LF : S_HEADER_START;
+				}
+				break;
+
+			case S_HEADER_LF:
+				if (b != LF) {
+					return BAD_REQUEST;
+				}
+				state = S_HEADER_START;
+				break;
+
+			case S_END_LF:
+				if (b != LF) {
+					return BAD_REQUEST;
+				}
+				return done();
+			}
+			cursor++;
+		}
+		return cursor >= maxHeaderBytes ? TOO_LARGE : INCOMPLETE;
+	}
+
+	private int done() {
+		cursor++;
+		return uriEnd > uriStart ? DONE : BAD_REQUEST;
+	}
+
+	/**
+	 * Number of bytes taken by the parsed request, up to and including the
+	 * blank line. Valid after parse() returned DONE.
+	 */
+	int length() {
+		return cursor;
+	}
+
+	/**
+	 * Copy the parsed request into a ParsedRequest. Only the URI and the
+	 * values of headers we understand become Strings, and a value that is the
+	 * same as on the previous request of this connection reuses that String.
+	 */
+	void fill(ByteBuffer in, ParsedRequest request) {
+		request.method = matches(in, methodStart, methodEnd, "GET") ? "GET" : string(in, methodStart, methodEnd);
+		request.uri = string(in, uriStart, uriEnd);
+		if (matches(in, versionStart, versionEnd, "HTTP/1.1")) {
+			request.version = "HTTP/1.1";
+		}
+		else if (versionEnd == versionStart || matches(in, versionStart, versionEnd, "HTTP/1.0")) {
+			request.version = "HTTP/1.0";
+		}
+		else {
+			request.version = string(in, versionStart, versionEnd);
+		}
+
+		String connection = null;
+		String ifNoneMatch = null;
+		String ifModifiedSince = null;
+		String range = null;
+		String ifRange = null;
+		String acceptEncoding = null;
+		for (int i = 0; i < headerCount; i++) {
+			if (nameIs(in, i, "connection")) {
+				connection = value(in, i, request.connection);
+			}
+			else if (nameIs(in, i, "if-none-match")) {
+				ifNoneMatch = value(in, i, request.ifNoneMatch);
+			}
+			else if (nameIs(in, i, "if-modified-since")) {
+				ifModifiedSince = value(in, i, request.ifModifiedSince);
+			}
+			else if (nameIs(in, i, "range")) {
+				range = value(in, i, request.range);
+			}
+			else if (nameIs(in, i, "if-range")) {
+				ifRange = value(in, i, request.ifRange);
+			}
+			else if (nameIs(in, i, "accept-encoding")) {
+				acceptEncoding = value(in, i, request.acceptEncoding);
+			}
+		}
+		request.connection = connection;
+		request.ifNoneMatch = ifNoneMatch;
+		request.ifModifiedSince = ifModifiedSince;
+		request.range = range;
+		request.ifRange = ifRange;
+		request.acceptEncoding = acceptEncoding;
+	}
+
+	/**
+	 * Remove the parsed request from the buffer, keeping any pipelined bytes
+	 * after it, and get ready for the next request
+	 */
+	void consume(ByteBuffer in) {
+		in.flip();
+		in.position(cursor);
+		in.compact();
+		reset();
+	}
+
+	void reset() {
+		state = S_START;
+		cursor = 0;
+		headerCount = 0;
+	}
+
+	/**
+	 * Case-insensitive comparison of header name i with a lower case name
+	 */
+	private boolean nameIs(ByteBuffer in, int i, String lowerName) {
+		int start = nameStart[i];
+		int length = nameEnd[i] - start;
+		if (length != lowerName.length()) {
+			return false;
+		}
+		for (int j = 0; j < length; j++) {
+			int c = in.get(start + j);
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			if (c != lowerName.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The value of header i, or previous if it has exactly the same bytes
+	 */
+	private String value(ByteBuffer in, int i, String previous) {
+		if (previous != null && matches(in, valueStart[i], valueEnd[i], previous)) {
+			return previous;
+		}
+		return string(in, valueStart[i], valueEnd[i]);
+	}
+
+	private static boolean matches(ByteBuffer in, int start, int end, String s) {
+		if (end - start != s.length()) {
+			return false;
+		}
+		for (int j = start; j < end; j++) {
+			if (in.get(j) != s.charAt(j - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String string(ByteBuffer in, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int j = start; j < end; j++) {
+			chars[j - start] = (char) (in.get(j) & 0xff);
+		}
+		return new String(chars);
+	}
+}
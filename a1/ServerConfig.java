@@ -0,0 +1,173 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+
+/**
+ * Holds the command line options of the web server. Options are given as
+ * "-name value" pairs, e.g.
+ *
+ * 		java WebServer -port 6789 -mode nio -loops 4
+ *
+ * Any option that is not given keeps the default shown below.
+ *
+ */
+final class ServerConfig {
+	// Port to listen on (may not work with 80)
+	int port = 6789;
+
+	// Serving mode: "thread" spawns a thread per connection, "virtual" runs
+	// each connection on a virtual thread, "pool" queues connections for a
+	// fixed set of threads, "nio" runs non-blocking selector event loops
+	String mode = "thread";
+
+	// Number of event loops in nio mode, one per core by default
+	int loops = Runtime.getRuntime().availableProcessors();
+
+	// Threads accepting connections. Each has its own listening socket when
+	// SO_REUSEPORT is available, and its own handlers: its share of the
+	// event loops or worker pool threads.
+	int acceptors = 1;
+
+	// Most connections handled at once in virtual mode
+	int maxConcurrent = 10000;
+
+	// Pool mode: handler threads, connections that may wait for one, and
+	// the Retry-After seconds sent with the 503 once the queue is full
+	int poolThreads = 200;
+	int queueSize = 1000;
+	int retryAfter = 1;
+
+	// Memory cache limits: total bytes (0 disables it), largest cached file,
+	// and how often a cached file is checked for changes on disk
+	long cacheBytes = 16 * 1024 * 1024;
+	long cacheMaxFileBytes = 1024 * 1024;
+	long cacheCheckMillis = 1000;
+
+	// Free direct buffers kept for reuse in each size class
+	int poolBuffers = 1024;
+
+	// Bundle file made by BundleBuilder to serve from memory, or "none"
+	String bundle = "none";
+
+	// Persistent connections are closed after this long without a request,
+	// or after serving this many requests
+	int keepAliveMillis = 5000;
+	int maxRequests = 100;
+
+	// Deadlines (see ConnectionDeadline): a request header must arrive
+	// within headerTimeoutMillis, with at most readTimeoutMillis between its
+	// bytes, and sending a response may not stall for writeTimeoutMillis.
+	// They are checked every timerTickMillis.
+	int headerTimeoutMillis = 10000;
+	int readTimeoutMillis = 5000;
+	int writeTimeoutMillis = 60000;
+	int timerTickMillis = 100;
+
+	// Requests with a longer header, or more header fields, are refused
+	int maxHeaderBytes = 8192;
+	int maxHeaders = 64;
+
+	// Access log: "stdout", "none" or a file name, the line format (see
+	// AccessLog) and how many records can wait for the writer thread
+	String accessLog = "stdout";
+	String logFormat = AccessLog.COMMON_FORMAT;
+	int logBuffer = 65536;
+
+	/**
+	 * Build a ServerConfig from the command line arguments
+	 */
+	static ServerConfig parse(String[] args) {
+		ServerConfig config = new ServerConfig();
+		for (int i = 0; i < args.length; i += 2) {
+			String name = args[i];
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for option " + name);
+			}
+			String value = args[i + 1];
+
+			if (name.equals("-port")) {
+				config.port = Integer.parseInt(value);
+			}
+			else if (name.equals("-mode")) {
+				if (!value.equals("thread") && !value.equals("virtual") && !value.equals("pool")
+						&& !value.equals("nio")) {
+					throw new IllegalArgumentException("Unknown mode " + value);
+				}
+				config.mode = value;
+			}
+			else if (name.equals("-loops")) {
+				config.loops = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-acceptors")) {
+				config.acceptors = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-maxConcurrent")) {
+				config.maxConcurrent = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-poolThreads")) {
+				config.poolThreads = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-queueSize")) {
+				config.queueSize = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-retryAfter")) {
+				config.retryAfter = Math.max(0, Integer.parseInt(value));
+			}
+			else if (name.equals("-cacheBytes")) {
+				config.cacheBytes = Long.parseLong(value);
+			}
+			else if (name.equals("-cacheMaxFileBytes")) {
+				config.cacheMaxFileBytes = Long.parseLong(value);
+			}
+			else if (name.equals("-cacheCheckMillis")) {
+				config.cacheCheckMillis = Long.parseLong(value);
+			}
+			else if (name.equals("-poolBuffers")) {
+				config.poolBuffers = Math.max(0, Integer.parseInt(value));
+			}
+			else if (name.equals("-bundle")) {
+				config.bundle = value;
+			}
+			else if (name.equals("-keepAliveMillis")) {
+				config.keepAliveMillis = Integer.parseInt(value);
+			}
+			else if (name.equals("-headerTimeoutMillis")) {
+				config.headerTimeoutMillis = Integer.parseInt(value);
+			}
+			else if (name.equals("-readTimeoutMillis")) {
+				config.readTimeoutMillis = Integer.parseInt(value);
+			}
+			else if (name.equals("-writeTimeoutMillis")) {
+				config.writeTimeoutMillis = Integer.parseInt(value);
+			}
+			else if (name.equals("-timerTickMillis")) {
+				config.timerTickMillis = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-maxRequests")) {
+				config.maxRequests = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-maxHeaderBytes")) {
+				config.maxHeaderBytes = Math.max(64, Integer.parseInt(value));
+			}
+			else if (name.equals("-maxHeaders")) {
+				config.maxHeaders = Math.max(1, Integer.parseInt(value));
+			}
+			else if (name.equals("-accessLog")) {
+				config.accessLog = value;
+			}
+			else if (name.equals("-logFormat")) {
+				config.logFormat = value;
+			}
+			else if (name.equals("-logBuffer")) {
+				config.logBuffer = Math.max(1, Integer.parseInt(value));
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+		return config;
+	}
+}
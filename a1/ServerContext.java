@@ -0,0 +1,58 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.io.*;
+
+/**
+ * The pieces shared by every connection of a running server: its options,
+ * the mapped bundle, the content cache, the access log, the metrics, the
+ * pooled I/O buffers, the timing wheel for blocking connections and, in pool
+ * mode, the worker pools. Built once in WebServer.main and handed to the handlers and
+ * event loops.
+ *
+ */
+final class ServerContext {
+	// Slots of each timing wheel; with the default tick one turn is 51.2s
+	static final int WHEEL_SLOTS = 512;
+
+	final ServerConfig config;
+	final ContentCache cache;
+
+	// Files packed by BundleBuilder, or null if no bundle is used
+	final Bundle bundle;
+	final AccessLog accessLog;
+	final Metrics metrics = new Metrics();
+	final BufferPool buffers;
+
+	// Deadlines of blocking connections, null in nio mode where each event
+	// loop has a wheel of its own
+	final TimingWheel timeouts;
+
+	// The handler threads in pool mode, one pool per acceptor, null otherwise
+	final WorkerPool[] pools;
+
+	ServerContext(ServerConfig config) throws IOException {
+		this.config = config;
+		this.bundle = config.bundle.equals("none") ? null : Bundle.open(config.bundle);
+		this.cache = new ContentCache(config.cacheBytes, config.cacheMaxFileBytes, config.cacheCheckMillis);
+		this.accessLog = AccessLog.open(config.accessLog, config.logFormat, config.logBuffer);
+		this.buffers = new BufferPool(config.poolBuffers);
+		this.timeouts = config.mode.equals("nio")
+			? null
+			: TimingWheel.start("timeouts", config.timerTickMillis, WHEEL_SLOTS);
+		if (config.mode.equals("pool")) {
+			// The threads and queue slots are shared out between the acceptors
+			pools = new WorkerPool[config.acceptors];
+			for (int i = 0; i < pools.length; i++) {
+				pools[i] = new WorkerPool("worker-" + i, Math.max(1, config.poolThreads / pools.length),
+					Math.max(1, config.queueSize / pools.length), config.retryAfter);
+			}
+		}
+		else {
+			pools = null;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+
+/**
+ * Hashed timing wheel for connection deadlines. Time is cut into ticks of
+ * tickMillis, and a timeout due at tick t is linked into slot t % slots.
+ * Scheduling, moving and cancelling a timeout are constant time, and each
+ * tick only looks at one slot, so the cost does not grow with the number
+ * of connections the way a sorted queue or a sweep over every connection
+ * does. Deadlines are rounded up to the next tick.
+ *
+ * Timeouts are intrusive list nodes: each connection owns one and moves it
+ * around as its deadline changes, so rescheduling allocates nothing.
+ *
+ * The wheel is advanced either by a ticker thread (see start()) or by the
+ * thread that owns it, such as an event loop. Expired timeouts are run on
+ * that thread, outside the wheel's lock.
+ *
+ */
+final class TimingWheel {
+	/**
+	 * A deadline that can be scheduled on one wheel at a time
+	 */
+	abstract static class Timeout {
+		private Timeout prev;
+		private Timeout next;
+		private long deadlineTick;
+		private boolean scheduled;
+
+		// Chains the timeouts found expired by one advance()
+		private Timeout nextExpired;
+
+		/**
+		 * Called on the advancing thread once the deadline has passed
+		 */
+		abstract void expired();
+	}
+
+	private final long tickMillis;
+	private final Timeout[] slots;
+	private final int mask;
+
+	// Last tick whose slot has been processed
+	private long tick;
+	private int size = 0;
+
+	/**
+	 * Create a wheel with the given tick length. The number of slots is
+	 * rounded up to a power of two.
+	 */
+	TimingWheel(long tickMillis, int slotCount) {
+		int count = 1;
+		while (count < slotCount) {
+			count *= 2;
+		}
+		this.tickMillis = tickMillis;
+		this.slots = new Timeout[count];
+		this.mask = count - 1;
+		this.tick = System.currentTimeMillis() / tickMillis;
+	}
+
+	/**
+	 * Create a wheel advanced every tick by a daemon thread of its own
+	 */
+	static TimingWheel start(String name, long tickMillis, int slotCount) {
+		final TimingWheel wheel = new TimingWheel(tickMillis, slotCount);
+		Thread ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(wheel.tickMillis);
+					} catch (InterruptedException e) {
+						return;
+					}
+					wheel.advance(System.currentTimeMillis());
+				}
+			}
+		}, name);
+		ticker.setDaemon(true);
+		ticker.start();
+		return wheel;
+	}
+
+	long tickMillis() {
+		return tickMillis;
+	}
+
+	/**
+	 * Schedule a timeout for the given time, moving it if it is already
+	 * scheduled
+	 */
+	synchronized void schedule(Timeout timeout, long deadlineMillis) {
+		if (timeout.scheduled) {
+			unlink(timeout);
+		}
+		long deadlineTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+		timeout.deadlineTick = Math.max(deadlineTick, tick + 1);
+
+		int slot = (int) timeout.deadlineTick & mask;
+		timeout.prev = null;
+		timeout.next = slots[slot];
+		if (slots[slot] != null) {
+			slots[slot].prev = timeout;
+		}
+		slots[slot] = timeout;
+		timeout.scheduled = true;
+		size++;
+	}
+
+	synchronized void cancel(Timeout timeout) {
+		if (timeout.scheduled) {
+			unlink(timeout);
+		}
+	}
+
+	/**
+	 * Number of timeouts scheduled
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Process every tick up to the given time, running the timeouts that
+	 * have expired. A timeout that was scheduled again before it could be
+	 * run is left alone.
+	 */
+	void advance(long nowMillis) {
+		Timeout expired = null;
+		synchronized (this) {
+			long target = nowMillis / tickMillis;
+			if (target <= tick) {
+				return;
+			}
+
+			// After a long pause, one turn of the wheel visits every slot
+			long first = Math.max(tick + 1, target - slots.length + 1);
+			for (long t = first; t <= target; t++) {
+				Timeout timeout = slots[(int) t & mask];
+				while (timeout != null) {
+					Timeout next = timeout.next;
+					if (timeout.deadlineTick <= target) {
+						unlink(timeout);
+						timeout.nextExpired = expired;
+						expired = timeout;
+					}
+					timeout = next;
+				}
+			}
+			tick = target;
+		}
+
+		while (expired != null) {
+			Timeout timeout = expired;
+			expired = timeout.nextExpired;
+			timeout.nextExpired = null;
+			synchronized (this) {
+				if (timeout.scheduled) {
+					continue;
+				}
+			}
+			timeout.expired();
+		}
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		}
+		else {
+			slots[(int) timeout.deadlineTick & mask] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.scheduled = false;
+		size--;
+	}
+}
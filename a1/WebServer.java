@@ -13,7 +13,10 @@
  */
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This is the main class which runs the loop that listens for incoming requests
@@ -23,23 +26,124 @@ import java.util.*;
  * 
  */
 public final class WebServer {
+	// How long an acceptor waits after accept() fails before trying again
+	static final long ACCEPT_BACKOFF_MILLIS = 100;
+	
 	public static void main(String argx[]) throws Exception {
 		// Step 1: Set the port number (may not work with 80)
-		int port = 6789;
+		ServerConfig config = ServerConfig.parse(argx);
+		int port = config.port;
+		
+		// Set up the content cache and access log shared by all connections
+		ServerContext context = new ServerContext(config);
 		
-		// Create the socket to listen for incoming connections
-		ServerSocket welcomeSocket = new ServerSocket(port);
+		// The nio mode serves every connection from a few selector threads
+		if (config.mode.equals("nio")) {
+			System.out.println("Serving with " + Math.max(config.loops, config.acceptors) + " event loops on port " + port);
+			new NioServer(context).serve();
+			return;
+		}
 		
+		// The virtual mode runs the blocking handler on cheap virtual threads,
+		// with at most maxConcurrent requests in flight
+		ExecutorService executor = null;
+		Semaphore permits = null;
+		if (config.mode.equals("virtual")) {
+			executor = newVirtualThreadExecutor();
+			permits = new Semaphore(config.maxConcurrent);
+		}
+		
+		// Create the sockets to listen for incoming connections, one for each
+		// acceptor if the kernel can share the port between them
+		ServerSocketChannel[] welcomeChannels = openListeners(port, config.acceptors);
+		
+		// Every acceptor but the first gets a thread of its own; the main
+		// thread runs the first. In pool mode each feeds its own worker pool.
+		for (int i = 1; i < config.acceptors; i++) {
+			Runnable acceptor = acceptor(welcomeChannels[i].socket(), context, poolOf(context, i), executor, permits);
+			new Thread(acceptor, "acceptor-" + i).start();
+		}
+		accept(welcomeChannels[0].socket(), context, poolOf(context, 0), executor, permits);
+	}
+	
+	/**
+	 * The worker pool fed by an acceptor, or null if not in pool mode
+	 */
+	private static WorkerPool poolOf(ServerContext context, int acceptor) {
+		return context.pools != null ? context.pools[acceptor] : null;
+	}
+	
+	/**
+	 * Open the listening sockets for count acceptors. With SO_REUSEPORT each
+	 * acceptor gets its own socket bound to the port and the kernel spreads
+	 * new connections over them; otherwise they all share one socket. The
+	 * sockets are opened through channels so that accepted sockets have a
+	 * SocketChannel, which the handlers read and write through.
+	 */
+	static ServerSocketChannel[] openListeners(int port, int count) throws IOException {
+		ServerSocketChannel[] channels = new ServerSocketChannel[count];
+		ServerSocketChannel first = ServerSocketChannel.open();
+		boolean reusePort = count > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		for (int i = 0; i < count; i++) {
+			if (i > 0 && !reusePort) {
+				channels[i] = first;
+				continue;
+			}
+			channels[i] = i == 0 ? first : ServerSocketChannel.open();
+			if (reusePort) {
+				channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
+			channels[i].bind(new InetSocketAddress(port));
+		}
+		if (count > 1) {
+			System.out.println(count + " acceptors " + (reusePort ? "with SO_REUSEPORT" : "sharing one socket")
+				+ " on port " + port);
+		}
+		return channels;
+	}
+	
+	/**
+	 * Accept connections on welcomeSocket forever, handing each to the pool,
+	 * the executor or a new thread. A failed accept, e.g. when the process
+	 * is out of file descriptors, is logged and retried after a short wait,
+	 * so that the acceptor is not lost; only a closed socket ends it.
+	 */
+	static void accept(ServerSocket welcomeSocket, ServerContext context, WorkerPool pool,
+		ExecutorService executor, Semaphore permits) throws Exception
+	{
 		// Enter an infinite loop and process incoming connections
 		// Use Ctrl-C to quit the application
 		while (true) {
-			System.out.println("Waiting for client");
 			// Listen for a new TCP connection request
-			Socket connectionSocket = welcomeSocket.accept();
-			System.out.println("Connection received");
+			Socket connectionSocket;
+			try {
+				connectionSocket = welcomeSocket.accept();
+			} catch (IOException e) {
+				if (welcomeSocket.isClosed()) {
+					throw e;
+				}
+				System.out.println(e);
+				backOff();
+				continue;
+			}
 			
 			// Construct an HttpRequest object to process the request message
-			HttpRequest request = new HttpRequest(connectionSocket);
+			HttpRequest request = new HttpRequest(connectionSocket, context);
+			
+			if (pool != null) {
+				// Queue it for a pool thread, or turn it away if the queue is full
+				if (!pool.submit(request)) {
+					request.reject(pool.rejection());
+				}
+				continue;
+			}
+			
+			if (executor != null) {
+				// Stop accepting while the concurrency limit is reached
+				permits.acquire();
+				executor.execute(releaseWhenDone(request, permits));
+				continue;
+			}
 			
 			// Create a new thread to process the request
 			Thread thread = new Thread(request);
@@ -48,6 +152,67 @@ public final class WebServer {
 			thread.start();
 		}
 	}
+	
+	/**
+	 * Wait a little before accepting again after a failure, so that a
+	 * shortage of file descriptors is not made worse by a busy loop
+	 */
+	static void backOff() {
+		try {
+			Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Run an accept loop on its own thread
+	 */
+	private static Runnable acceptor(final ServerSocket welcomeSocket, final ServerContext context,
+		final WorkerPool pool, final ExecutorService executor, final Semaphore permits)
+	{
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					accept(welcomeSocket, context, pool, executor, permits);
+				} catch (Exception e) {
+					System.out.println(e);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Create an executor that starts a virtual thread per task. Virtual threads
+	 * only exist from Java 21, so on older JVMs we fall back to a cached pool
+	 * of platform threads, which at least reuses threads between requests.
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			return (ExecutorService) executor;
+		} catch (Exception e) {
+			System.out.println("Virtual threads not available, using a cached thread pool");
+			return Executors.newCachedThreadPool();
+		}
+	}
+	
+	/**
+	 * Wrap a request so that its permit is handed back once it completes
+	 */
+	private static Runnable releaseWhenDone(final HttpRequest request, final Semaphore permits) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					request.run();
+				} finally {
+					permits.release();
+				}
+			}
+		};
+	}
 }
 
 /**
@@ -57,15 +222,20 @@ public final class WebServer {
  * 
  */
 final class HttpRequest implements Runnable {
-	final static String CRLF = "\r\n";
 	Socket socket;
+	ServerContext context;
+	ServerConfig config;
+	ConnectionDeadline deadline;
 	
 	/**
-	 * Constructor takes the socket for this request
+	 * Constructor takes the socket for this request and the server's shared
+	 * state (options, content cache and access log)
 	 */
-	public HttpRequest(Socket socket) throws Exception
+	public HttpRequest(Socket socket, ServerContext context) throws Exception
 	{
 		this.socket = socket;
+		this.context = context;
+		this.config = context.config;
 	}
 	
 	/**
@@ -82,144 +252,136 @@ final class HttpRequest implements Runnable {
 	}
 	
 	/**
-	 * This is where the action occurs
+	 * Turn the connection away because the server is too busy: send the
+	 * pre-encoded 503 response and close. Runs on the accepting thread, so
+	 * it writes once and does not wait for the client.
+	 */
+	void reject(byte[] response)
+	{
+		try {
+			socket.getOutputStream().write(response);
+		} catch (IOException e) {
+			// The client is gone already
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+		context.accessLog.log(socket.getInetAddress(), null, 503, HttpResponse.SERVICE_UNAVAILABLE_MESSAGE.length(), 0);
+		context.metrics.record(503, HttpResponse.SERVICE_UNAVAILABLE_MESSAGE.length(), 0);
+	}
+	
+	/**
+	 * This is where the action occurs. Requests are served one after the
+	 * other on the same connection until the client asks us to close it,
+	 * has sent maxRequests, or misses a deadline (see ConnectionDeadline).
 	 * @throws Exception
 	 */
 	private void processRequest() throws Exception
 	{
-		int port = 6789;
-		
 		// STEP 2a: Parse the HTTP Request message
 		// Get a reference to the socket's input and output streams
 		Socket clientSocket = this.socket;
 		
-		// Set up input stream filters
-		BufferedReader userInput = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-		DataOutputStream serverOutput = new DataOutputStream(clientSocket.getOutputStream());
-		
-		// Get the request line of the HTTP request message
-		String requestLine = userInput.readLine();
-		
-		// Display the request line
-		if(requestLine != null){
-			System.out.println("\n---- Request ----");
-			System.out.println(requestLine);			
-		}
-
-		// Get and display the header lines
-		while(true){
-			String headerLine = userInput.readLine();
-			
-			//Break if the header returns a blank line
-			if(headerLine.equals("") || headerLine.equals("\n") || headerLine == null){
-				break;
+		// The timing wheel closes the socket if the client is too slow,
+		// which makes a blocked read or write fail
+		deadline = new ConnectionDeadline(context.timeouts, config, context.metrics) {
+			@Override
+			void close() {
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
 			}
-			System.out.println(headerLine);
-		}
-		
-		System.out.println("---- End of header---\n");
-
-		// (The last part of STEP 2 is at the end of this method)
-		// (Close the socket)
+		};
 		
-		// STEP 3a: Prepare and Send the HTTP Response message
-		// Extract the filename from the request line
-		StringTokenizer tokens = new StringTokenizer(requestLine);
-		tokens.nextToken(); // skip over the method, which we'll assume is "GET"
-		String fileName = tokens.nextToken();
-				
-		// Prepend a "." to the file name so that the file request is in the
-		// current directory
-		fileName = "." + fileName;
+		// Request bytes are read from the socket's channel into a pooled
+		// buffer and parsed in place; both are reused for every request on
+		// the connection. Responses are written to the same channel.
+		SocketChannel channel = clientSocket.getChannel();
+		ByteBuffer in = context.buffers.acquire(config.maxHeaderBytes);
+		RequestParser parser = new RequestParser(config.maxHeaderBytes, config.maxHeaders);
+		ParsedRequest request = new ParsedRequest();
 		
-		// Open the requested file
-		FileInputStream fis = null;
-		boolean fileExists = true;
+		context.metrics.connectionOpened();
 		try {
-			fis = new FileInputStream(fileName);
-		} catch (FileNotFoundException e) {
-			fileExists = false;
-		}
-		
-		// Construct the response message header
-		String statusLine = null;
-		String contentTypeLine = null;
-		String errorMessage = "<HTML><HEAD><TITLE>404 Not Found</TITLE></HEAD><BODY>404 Not Found</BODY></HTML>";
-
-		// Fill in the values of statusLine and contentTypeLine based on whether
-		// or not the requested file was found		
-		if(fileExists){
-			statusLine = "HTTP/1.0 200 OK";
-			contentTypeLine = "Content-type: " + contentType(fileName);
-		}
-		else{
-			statusLine = "HTTP/1.0 404 Not Found";
-			contentTypeLine = "Content-type: text/html";
-		}
-				
-		// Send a HTTP response header containing the status line and
-		// content-type line. Don't forget to include a blank line after the
-		// content-type to signal the end of the header.
-		serverOutput.writeBytes(statusLine);
-		serverOutput.writeBytes(CRLF);
-		serverOutput.writeBytes(contentTypeLine);	
-		serverOutput.writeBytes(CRLF);
-		serverOutput.writeBytes("\n");
-		
-		// Send the body of the message (the web object)
-		// You may use the sendBytes helper method provided
-		if(fileExists){
-			sendBytes(fis, serverOutput);
-		}
-		else{			
-			//sendBytes(errorMessage, serverOutput);
-			serverOutput.writeBytes(errorMessage);
+			int served = 0;
+			boolean keepAlive = true;
+			while (keepAlive) {
+				served++;
+				keepAlive = serveRequest(channel, in, parser, request, served < config.maxRequests);
+			}
+		} catch (IOException e) {
+			// A closed socket is expected once a deadline has passed
+			if (!deadline.hasExpired()) {
+				throw e;
+			}
+		} finally {
+			// STEP 2b: Close the input/output streams and socket before returning
+			deadline.cancel();
+			context.metrics.connectionClosed();
+			context.buffers.release(in);
+			channel.close();
 		}
-
-		// STEP 2b: Close the input/output streams and socket before returning
-		userInput.close();
-		serverOutput.close();
 	}
 	
 	/**
-	 * Private method that returns the appropriate MIME-type string based on the
-	 * suffix of the appended file
-	 * @param fileName
-	 * @return
+	 * Read one request from the connection and write its response. Returns
+	 * true if the connection should stay open for another request.
 	 */
-	private static String contentType(String fileName) {
-		if (fileName.endsWith(".htm") || fileName.endsWith(".html")) {
-			return "text/html";
-		}
-		// STEP 3b: Add code here to deal with GIFs, JPEGs, and CSS
-		else if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")){
-			return "image/jpeg";
-		}
-		else if (fileName.endsWith(".gif")){
-			return "image/gif";
+	private boolean serveRequest(SocketChannel channel, ByteBuffer in, RequestParser parser, ParsedRequest request,
+		boolean allowKeepAlive) throws Exception
+	{
+		// Read until the parser has seen the blank line ending the header.
+		// End of stream means the client closed the connection.
+		int result;
+		while ((result = parser.parse(in)) == RequestParser.INCOMPLETE) {
+			deadline.reading(in.position());
+			if (channel.read(in) == -1) {
+				return false;
+			}
 		}
-		else if (fileName.endsWith(".css")){
-			return "text/css";
+		
+		deadline.writing();
+		
+		// Refuse malformed or oversized requests and close the connection
+		if (result != RequestParser.DONE) {
+			HttpResponse error = result == RequestParser.TOO_LARGE
+				? HttpResponse.error(431, HttpResponse.TOO_LARGE_HEADER)
+				: HttpResponse.error(400, HttpResponse.BAD_REQUEST_HEADER);
+			error.prepare(context.buffers, HttpResponse.CLOSE_LINE);
+			try {
+				error.writeTo(channel, deadline);
+			} finally {
+				error.close();
+			}
+			context.accessLog.log(socket.getInetAddress(), null, error.status, 0, 0);
+			context.metrics.record(error.status, 0, 0);
+			return false;
 		}
-		return "application/octet-stream";
-	}
+		
+		long start = System.nanoTime();
+		parser.fill(in, request);
+		parser.consume(in);
 
-	/**
-	 * Private helper method to read the file and send it to the socket
-	 * @param fis
-	 * @param os
-	 * @throws Exception
-	 */
-	private static void sendBytes(FileInputStream fis, OutputStream os) 
-		throws Exception 
-	{
-		// Allocate a 1k buffer to hold bytes on their way to the socket
-		byte[] buffer = new byte[1024];
-		int bytes = 0;
+		// STEP 3a: Prepare and Send the HTTP Response message
+		boolean keepAlive = allowKeepAlive && request.wantsKeepAlive();
+		HttpResponse response = HttpResponse.forRequest(request, context);
 		
-		// Copy requested file into the socket's output stream
-		while ((bytes = fis.read(buffer)) != -1) {
-			os.write(buffer, 0, bytes);
+		// Send the header, the Connection line ending it and the body of the
+		// message (the web object). The channel is blocking, so writeTo()
+		// returns once everything has gone.
+		try {
+			response.prepare(context.buffers, keepAlive ? HttpResponse.KEEP_ALIVE_LINE : HttpResponse.CLOSE_LINE);
+			response.writeTo(channel, deadline);
+		} finally {
+			response.close();
 		}
+		
+		long elapsed = System.nanoTime() - start;
+		context.accessLog.log(socket.getInetAddress(), request, response.status, response.bodyLength(), elapsed);
+		context.metrics.record(response.status, response.bodyLength(), elapsed);
+		return keepAlive;
 	}
 }
\ No newline at end of file
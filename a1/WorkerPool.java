@@ -0,0 +1,102 @@
+/**
+ * ECSE 414 - Assignment 1
+ *
+ * Singzon, Ryan
+ * 260397455
+ */
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A fixed number of handler threads fed by a bounded queue of accepted
+ * connections. When a burst fills the queue, further connections are turned
+ * away at once with a 503 instead of piling up threads or memory.
+ *
+ */
+final class WorkerPool {
+	private final ThreadPoolExecutor executor;
+	private final int queueCapacity;
+	private final AtomicLong rejected = new AtomicLong();
+
+	// The whole 503 response, encoded once
+	private final byte[] rejection;
+
+	/**
+	 * Start the handler threads, named "name-1", "name-2", ... Turned away
+	 * clients are asked to retry after retryAfter seconds.
+	 */
+	public WorkerPool(String name, int threads, int queueCapacity, int retryAfter) {
+		this.queueCapacity = queueCapacity;
+		this.rejection = HttpResponse.serviceUnavailable(retryAfter);
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerThreadFactory(name));
+		executor.prestartAllCoreThreads();
+	}
+
+	/**
+	 * Queue a connection for a handler thread. Returns false if the queue
+	 * is full, and the caller should answer it with rejection().
+	 */
+	boolean submit(Runnable request) {
+		try {
+			executor.execute(request);
+			return true;
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * The whole 503 response for a connection the pool turned away
+	 */
+	byte[] rejection() {
+		return rejection;
+	}
+
+	int threads() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * Handler threads currently serving a connection
+	 */
+	int active() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Connections waiting for a handler thread
+	 */
+	int queueDepth() {
+		return executor.getQueue().size();
+	}
+
+	int queueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Connections turned away with a 503 since the server started
+	 */
+	long rejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Numbers the handler threads of a pool
+	 */
+	private static final class WorkerThreadFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		WorkerThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			return new Thread(task, name + "-" + count.incrementAndGet());
+		}
+	}
+}
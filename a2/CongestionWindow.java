@@ -0,0 +1,153 @@
+/**
+ * Singzon, Ryan
+ * 260397455
+ */
+
+import java.io.*;
+
+/**
+ * CongestionWindow - TCP-style congestion control for a Go-back-N sender
+ *
+ * The window starts at one packet and grows by one for each packet ACKed
+ * (slow start, doubling every round trip) until it reaches ssthresh, then
+ * by one per window of packets ACKed (congestion avoidance). A loss found
+ * by duplicate ACKs halves it; a timeout sets ssthresh to half the packets
+ * in flight and starts again from one packet. The sender sends no more
+ * than min(cwnd, N) packets beyond base, so cwnd is not grown past N.
+ *
+ * Every change is kept in a trace of (time, cwnd, ssthresh). The trace is
+ * a ring allocated up front that keeps the last MAX_TRACE changes, so
+ * tracing allocates nothing per packet and the latest changes are kept.
+ */
+class CongestionWindow {
+	// A power of two, so that the ring index is the count masked
+	static final int MAX_TRACE = 1 << 16;
+
+	private double cwnd = 1;
+	private double ssthresh;
+	private final int max;
+
+	private long decreases = 0;
+
+	// Trace of every change, relative to when the window was made. Entry
+	// i of the changes so far is at index i & (MAX_TRACE - 1).
+	private final long start = System.nanoTime();
+	private final long[] traceTimes = new long[MAX_TRACE];
+	private final double[] traceWindows = new double[MAX_TRACE];
+	private final double[] traceThresholds = new double[MAX_TRACE];
+	private long traceCount = 0;
+
+	/**
+	 * Create a window for a sender whose window is N packets. It starts in
+	 * slow start with ssthresh at N.
+	 */
+	public CongestionWindow(int N) {
+		this.max = Math.max(1, N);
+		this.ssthresh = Math.max(2, N);
+		trace();
+	}
+
+	/**
+	 * The number of packets that may be in flight, at least 1
+	 */
+	public int get() {
+		return (int) cwnd;
+	}
+
+	public double getSsthresh() {
+		return ssthresh;
+	}
+
+	/**
+	 * Some packets were ACKed for the first time
+	 */
+	public void acked(int packets) {
+		if (packets <= 0) {
+			return;
+		}
+		if (cwnd < ssthresh) {
+			cwnd = Math.min(cwnd + packets, ssthresh);
+		}
+		else {
+			cwnd += (double) packets / cwnd;
+		}
+		cwnd = Math.min(cwnd, max);
+		trace();
+	}
+
+	/**
+	 * Duplicate ACKs showed a lost packet while inFlight were outstanding
+	 */
+	public void lost(int inFlight) {
+		ssthresh = Math.max(2, inFlight / 2.0);
+		cwnd = ssthresh;
+		decreases++;
+		trace();
+	}
+
+	/**
+	 * The retransmission timer ran out while inFlight were outstanding
+	 */
+	public void timedOut(int inFlight) {
+		ssthresh = Math.max(2, inFlight / 2.0);
+		cwnd = 1;
+		decreases++;
+		trace();
+	}
+
+	/**
+	 * Get the number of times the window was cut
+	 */
+	public long getDecreases() {
+		return decreases;
+	}
+
+	/**
+	 * Get the number of entries in the trace, at most MAX_TRACE
+	 */
+	public int getTraceLength() {
+		return (int) Math.min(traceCount, MAX_TRACE);
+	}
+
+	/**
+	 * Get the number of changes traced, including those the ring has
+	 * since dropped
+	 */
+	public long getTraceCount() {
+		return traceCount;
+	}
+
+	/**
+	 * Write the trace, one "milliseconds cwnd ssthresh" line per change,
+	 * oldest first
+	 */
+	public void writeTrace(PrintStream out) {
+		for (long i = traceCount - getTraceLength(); i < traceCount; i++) {
+			int index = (int) i & (MAX_TRACE - 1);
+			out.printf("%.3f %.2f %.2f%n", traceTimes[index] / 1e6, traceWindows[index], traceThresholds[index]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("cwnd %.2f, ssthresh %.2f, %d decreases, %d changes traced",
+			cwnd, ssthresh, decreases, traceCount);
+	}
+
+	/**
+	 * Add an entry if cwnd or ssthresh changed since the last one
+	 */
+	private void trace() {
+		if (traceCount > 0) {
+			int last = (int) (traceCount - 1) & (MAX_TRACE - 1);
+			if (traceWindows[last] == cwnd && traceThresholds[last] == ssthresh) {
+				return;
+			}
+		}
+		int index = (int) traceCount & (MAX_TRACE - 1);
+		traceTimes[index] = System.nanoTime() - start;
+		traceWindows[index] = cwnd;
+		traceThresholds[index] = ssthresh;
+		traceCount++;
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Singzon, Ryan
+ * 260397455
+ */
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * FastRetransmitTest - Check that Go-Back-N only goes back for real losses
+ *
+ * Streams segments over loopback, where nothing is lost, to a
+ * GoBackNReceiver read on another thread, and fails if the sender made any
+ * fast retransmit: duplicate ACKs there can only come from copies of packets
+ * the receiver already had, which must not start another one.
+ *
+ * Usage: java FastRetransmitTest [segments] [window] [port]
+ */
+public class FastRetransmitTest {
+	public static void main(String args[]) throws Exception {
+		int segments = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final int window = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		final int port = args.length > 2 ? Integer.parseInt(args[2]) : 9990;
+		int payload = GoBackNPacket.DEFAULT_MTU - GoBackNPacket.HEADER_LENGTH;
+
+		final long[] received = new long[1];
+		Thread reader = new Thread("receiver") {
+			@Override
+			public void run() {
+				GoBackNReceiver receiver = GoBackNReceiver.accept(port, window);
+				ByteBuffer dst = ByteBuffer.allocateDirect(1 << 16);
+				try {
+					int n;
+					while ((n = receiver.read(dst)) != -1) {
+						received[0] += n;
+						dst.clear();
+					}
+				} catch (IOException e) {
+					System.out.println(e);
+				}
+				receiver.close();
+			}
+		};
+		reader.start();
+
+		GoBackNSender sender = new GoBackNSender("localhost", port, GoBackNPacket.DEFAULT_MTU, window);
+		ByteBuffer src = ByteBuffer.allocateDirect(payload);
+		long start = System.nanoTime();
+		for (int i = 0; i < segments; i++) {
+			src.clear();
+			sender.write(src);
+		}
+		sender.close();
+		reader.join();
+		long elapsed = (System.nanoTime() - start) / 1000000;
+
+		long sent = (long) segments * payload;
+		System.out.println(segments + " segments, window " + window + ": " + sender.getFastRetransmits()
+			+ " fast retransmits, " + sender.getRetransmissions() + " retransmissions, "
+			+ sender.getTimeouts() + " timeouts, " + sender.getCongestionWindow() + ", " + elapsed + " ms");
+		boolean passed = received[0] == sent && sender.getFastRetransmits() == 0;
+		if (received[0] != sent) {
+			System.out.println("FAIL received " + received[0] + " of " + sent + " bytes");
+		}
+		else if (sender.getFastRetransmits() != 0) {
+			System.out.println("FAIL fast retransmits on a lossless transfer");
+		}
+		else {
+			System.out.println("PASS");
+		}
+		System.exit(passed ? 0 : 1);
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Singzon, Ryan
+ * 260397455
+ */
+
+import java.nio.*;
+
+/**
+ * GoBackNFlyweight - Go-back-N packet fields read and written in place
+ *
+ * A view of one packet held in a ByteBuffer, in the format GoBackNPacket
+ * defines. wrap() a buffer holding a received datagram from index 0 to its
+ * limit and read the fields with the accessors, or encode a packet into it
+ * ready to send. Nothing is copied into objects or allocated, so one
+ * flyweight over one direct buffer serves every packet of a transfer.
+ */
+final class GoBackNFlyweight {
+	private ByteBuffer buffer;
+
+	/**
+	 * View the packet in a buffer, which the flyweight then reads and writes
+	 */
+	public GoBackNFlyweight wrap(ByteBuffer buffer) {
+		this.buffer = buffer;
+		return this;
+	}
+
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Test if the buffer, from index 0 to its limit, holds a whole packet
+	 */
+	public boolean isValid() {
+		int received = buffer.limit();
+		return received >= GoBackNPacket.HEADER_LENGTH
+			&& GoBackNPacket.HEADER_LENGTH + payloadLength() <= received;
+	}
+
+	public byte type() {
+		return buffer.get(0);
+	}
+
+	public boolean isHello() {
+		return type() == GoBackNPacket.TYPE_HELLO;
+	}
+
+	public boolean isGoodbye() {
+		return type() == GoBackNPacket.TYPE_GOODBYE;
+	}
+
+	public boolean isData() {
+		return type() == GoBackNPacket.TYPE_DATA;
+	}
+
+	public boolean isAck() {
+		return type() == GoBackNPacket.TYPE_ACK;
+	}
+
+	public int sequenceNumber() {
+		return buffer.getInt(1);
+	}
+
+	public int payloadLength() {
+		return buffer.getShort(5) & 0xFFFF;
+	}
+
+	/**
+	 * The window size carried by a Hello or its ACK, or DEFAULT_WINDOW if
+	 * the packet does not carry one
+	 */
+	public int window() {
+		if (payloadLength() < 4) {
+			return GoBackNPacket.DEFAULT_WINDOW;
+		}
+		return buffer.getInt(GoBackNPacket.HEADER_LENGTH);
+	}
+
+	/**
+	 * The flags carried by a Hello or its ACK, or 0 if there are none
+	 */
+	public byte flags() {
+		if (payloadLength() < 5) {
+			return 0;
+		}
+		return buffer.get(GoBackNPacket.HEADER_LENGTH + 4);
+	}
+
+	/**
+	 * Set the buffer's position and limit around the payload, so it can be
+	 * read without copying. The header fields can still be read.
+	 */
+	public ByteBuffer payload() {
+		buffer.limit(GoBackNPacket.HEADER_LENGTH + payloadLength());
+		buffer.position(GoBackNPacket.HEADER_LENGTH);
+		return buffer;
+	}
+
+	/**
+	 * Copy the payload into dst at its position
+	 */
+	public void getPayload(ByteBuffer dst) {
+		int position = buffer.position();
+		int limit = buffer.limit();
+		dst.put(payload());
+		buffer.limit(limit);
+		buffer.position(position);
+	}
+
+	/**
+	 * Encode a packet carrying length bytes of data starting at offset, and
+	 * flip the buffer ready to send it
+	 */
+	public void encode(byte type, int sequenceNumber, byte[] data, int offset, int length) {
+		putHeader(type, sequenceNumber, length);
+		buffer.put(data, offset, length);
+		buffer.flip();
+	}
+
+	/**
+	 * Encode a packet with no payload, such as an ACK or a Goodbye, and
+	 * flip the buffer ready to send it
+	 */
+	public void encode(byte type, int sequenceNumber) {
+		putHeader(type, sequenceNumber, 0);
+		buffer.flip();
+	}
+
+	/**
+	 * Copy in a packet already encoded, e.g. by GoBackNPacket.toBytes(),
+	 * and flip the buffer ready to send it
+	 */
+	public void encode(byte[] packet) {
+		buffer.clear();
+		buffer.put(packet);
+		buffer.flip();
+	}
+
+	private void putHeader(byte type, int sequenceNumber, int length) {
+		buffer.clear();
+		buffer.put(type);
+		buffer.putInt(sequenceNumber);
+		buffer.putShort((short) length);
+	}
+}
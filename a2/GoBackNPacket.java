@@ -1,4 +1,4 @@
-/** 
+/**
  * GoBackNPacket - Assignment 2 for ECSE 414
  *
  * Simple Go-back-N packet data structure.
@@ -7,9 +7,9 @@
  * McGill University
  * michael.rabbat@mcgill.ca
  */
- 
+
 import java.net.*;
- 
+
 class GoBackNPacket {
 	// Types of packets
 	static final byte TYPE_HELLO = 1;
@@ -17,79 +17,208 @@ class GoBackNPacket {
 	static final byte TYPE_DATA = 3;
 	static final byte TYPE_ACK = 4;
 
+	// Header: type, 32-bit sequence number, then the payload length as an
+	// unsigned 16-bit number, followed by that many bytes of payload
+	static final int HEADER_LENGTH = 7;
+
+	// Window a Hello asks for if it does not name one, and the largest a
+	// receiver grants. Sequence numbers are compared modulo 2^32, which is
+	// only safe while the window is well under 2^31.
+	static final int DEFAULT_WINDOW = 5;
+	static final int MAX_WINDOW = 1 << 16;
+
+	// Hello flags. With FLAG_SELECTIVE_REPEAT the receiver buffers packets
+	// that arrive out of order and ACKs each one; its ACK of the Hello keeps
+	// the flag if it agrees.
+	static final byte FLAG_SELECTIVE_REPEAT = 1;
+
+	// Largest datagram UDP can carry over IPv4, and the default MTU, which
+	// fits a datagram in one Ethernet frame (1500 - 20 byte IP - 8 byte UDP)
+	static final int MAX_DATAGRAM = 65507;
+	static final int DEFAULT_MTU = 1472;
+
+	private static final byte[] EMPTY = new byte[0];
+
 	private byte type;
-	private byte sequenceNumber;
-	private byte value;
-	
+	private int sequenceNumber;
+	private byte[] payload;
+	private int offset;
+	private int length;
+
 	/**
 	 * Constructor that also initializes the values
 	 */
-	public GoBackNPacket(byte type, byte sequenceNumber, char value) {
+	public GoBackNPacket(byte type, int sequenceNumber, char value) {
+		this(type, sequenceNumber, new byte[] { (byte)value }, 0, 1);
+	}
+
+	/**
+	 * Constructor for a packet carrying length bytes of data starting at
+	 * offset. The bytes are not copied until toDatagramPacket().
+	 */
+	public GoBackNPacket(byte type, int sequenceNumber, byte[] data, int offset, int length) {
+		if (length > MAX_DATAGRAM - HEADER_LENGTH) {
+			throw new IllegalArgumentException("Payload of " + length + " bytes does not fit in a datagram");
+		}
 		this.type = type;
 		this.sequenceNumber = sequenceNumber;
-		this.value = (byte)value;
+		this.payload = data;
+		this.offset = offset;
+		this.length = length;
 	}
-	
+
 	/**
 	 * Constructor that initializes values from a DatagramPacket
 	 */
 	public GoBackNPacket(DatagramPacket packet) {
-		byte[] data = packet.getData();
-		this.type = data[0];
-		this.sequenceNumber = data[1];
-		this.value = data[2];
+		this(packet.getData(), packet.getOffset(), packet.getLength());
+	}
+
+	/**
+	 * Constructor that initializes values from a datagram of received bytes
+	 * starting at start
+	 */
+	public GoBackNPacket(byte[] data, int start, int received) {
+		if (received < HEADER_LENGTH) {
+			// Too short to be one of ours
+			this.type = -1;
+			this.payload = EMPTY;
+			return;
+		}
+		this.type = data[start];
+		this.sequenceNumber = getInt(data, start + 1);
+		int length = ((data[start + 5] & 0xFF) << 8) | (data[start + 6] & 0xFF);
+		this.length = Math.min(length, received - HEADER_LENGTH);
+		this.payload = new byte[this.length];
+		System.arraycopy(data, start + HEADER_LENGTH, payload, 0, this.length);
 	}
-	
+
 	/**
 	 * Test if this is a Hello-type packet
 	 */
 	public boolean isHello() {
 		return (type == TYPE_HELLO);
 	}
-	
+
 	/**
 	 * Test if this is a Goodbye-type packet
 	 */
 	public boolean isGoodbye() {
 		return (type == TYPE_GOODBYE);
 	}
-	
+
 	/**
 	 * Test if this is a Data-type packet
 	 */
 	public boolean isData() {
 		return (type == TYPE_DATA);
 	}
-	
+
 	/**
 	 * Test if this is an ACK-type packet
 	 */
 	public boolean isAck() {
 		return (type == TYPE_ACK);
 	}
-	
+
 	/**
 	 * Get the sequence number of this packet
 	 */
-	public byte getSequenceNumber() {
+	public int getSequenceNumber() {
 		return sequenceNumber;
 	}
-	
+
 	/**
-	 * Get the data value from this packet
+	 * Get the first data byte from this packet, or 0 if it has none
 	 */
 	public char getValue() {
-		return (char)value;
+		return length > 0 ? (char)payload[offset] : (char)0;
+	}
+
+	/**
+	 * Get the number of payload bytes in this packet
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Get the window size carried by a Hello or its ACK, or DEFAULT_WINDOW
+	 * if the packet does not carry one
+	 */
+	public int getWindow() {
+		if (length < 4) {
+			return DEFAULT_WINDOW;
+		}
+		return getInt(payload, offset);
+	}
+
+	/**
+	 * Get the flags carried by a Hello or its ACK, or 0 if there are none
+	 */
+	public byte getFlags() {
+		if (length < 5) {
+			return 0;
+		}
+		return payload[offset + 4];
 	}
-	
+
+	/**
+	 * Get a copy of the payload of this packet
+	 */
+	public byte[] getPayload() {
+		byte[] copy = new byte[length];
+		System.arraycopy(payload, offset, copy, 0, length);
+		return copy;
+	}
+
 	/**
 	 * Convert this GoBackNPacket to a DatagramPacket
 	 */
 	public DatagramPacket toDatagramPacket() {
-		byte[] data = new byte[3];
+		byte[] data = toBytes();
+		return new DatagramPacket(data, data.length);
+	}
+
+	/**
+	 * Encode this GoBackNPacket as the bytes of a datagram
+	 */
+	public byte[] toBytes() {
+		byte[] data = new byte[HEADER_LENGTH + length];
 		data[0] = type;
-		data[1] = sequenceNumber;
-		data[2] = value;
-		return new DatagramPacket(data, 3);
+		putInt(data, 1, sequenceNumber);
+		data[5] = (byte)(length >>> 8);
+		data[6] = (byte)length;
+		System.arraycopy(payload, offset, data, HEADER_LENGTH, length);
+		return data;
+	}
+
+	/**
+	 * Create a Hello, or the ACK of one, carrying a window size and flags
+	 */
+	public static GoBackNPacket withWindow(byte type, int window, byte flags) {
+		byte[] data = new byte[5];
+		putInt(data, 0, window);
+		data[4] = flags;
+		return new GoBackNPacket(type, -1, data, 0, 5);
+	}
+
+	/**
+	 * Create an empty DatagramPacket big enough to receive any packet
+	 */
+	public static DatagramPacket receiveBuffer() {
+		return new DatagramPacket(new byte[MAX_DATAGRAM], MAX_DATAGRAM);
+	}
+
+	private static int getInt(byte[] data, int index) {
+		return ((data[index] & 0xFF) << 24) | ((data[index + 1] & 0xFF) << 16)
+			| ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
+	}
+
+	private static void putInt(byte[] data, int index, int value) {
+		data[index] = (byte)(value >>> 24);
+		data[index + 1] = (byte)(value >>> 16);
+		data[index + 2] = (byte)(value >>> 8);
+		data[index + 3] = (byte)value;
 	}
-}
\ No newline at end of file
+}
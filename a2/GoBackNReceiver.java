@@ -15,31 +15,97 @@
  
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 
-class GoBackNReceiver {
+class GoBackNReceiver implements ReadableByteChannel {
 	
-	private DatagramSocket receiverSocket;
-	private byte expectedseqnum;
-	private InetAddress senderIPAddress;
-	private int senderPort;
+	// UDP channel, connected to the sender once its Hello arrives
+	private DatagramChannel receiverChannel;
+	private SocketAddress sender;
+
+	// Reused direct buffers for the packet received and the reply to it,
+	// read and written in place through flyweights
+	private final ByteBuffer incoming = ByteBuffer.allocateDirect(GoBackNPacket.MAX_DATAGRAM);
+	private final ByteBuffer outgoing = ByteBuffer.allocateDirect(GoBackNPacket.MAX_DATAGRAM);
+	private final GoBackNFlyweight incomingPacket = new GoBackNFlyweight().wrap(incoming);
+	private final GoBackNFlyweight reply = new GoBackNFlyweight().wrap(outgoing);
+
+	// Where each payload is copied to be printed and kept
+	private final byte[] payloadBytes = new byte[GoBackNPacket.MAX_DATAGRAM];
+
+	// The buffer read() is filling, and payloads delivered past its end,
+	// kept for the next read(). Selective Repeat may deliver a window of
+	// payloads at once, so this holds at most a window.
+	private ByteBuffer destination;
+	private ByteBuffer pending = ByteBuffer.allocate(0);
+
+	// Whether the Goodbye has arrived, and whether the channel is open
+	private boolean finished = false;
+	private boolean open = true;
+
+	// Largest window granted to a sender
+	private int maxWindow;
+
+	// Protocol state of the transfer: expectedseqnum, window and so on
+	private ReceiverSession session;
+
+	// The message reassembled from the payloads received in order
+	private ByteArrayOutputStream message = new ByteArrayOutputStream();
+
+	// Asked-for size of the socket's receive buffer, so that a large window
+	// of packets arriving together is not dropped (Linux caps it at
+	// net.core.rmem_max)
+	static final int RECEIVE_BUFFER = 1 << 22;
 	
 	/**
 	 * Create a new receiver socket and wait for an incoming connection
 	 */ 
 	public GoBackNReceiver(int port) {
+		this(port, GoBackNPacket.MAX_WINDOW);
+	}
+
+	/**
+	 * Create a new receiver socket that grants senders a window of at most
+	 * maxWindow packets, and wait for an incoming connection
+	 */
+	public GoBackNReceiver(int port, int maxWindow) {
+		this(port, maxWindow, false);
+	}
+
+	/**
+	 * Create a new receiver socket that grants senders a window of at most
+	 * maxWindow packets, and wait for a sender's Hello. The bytes it sends
+	 * are then read from the receiver as a stream with read() or
+	 * getInputStream(), in constant memory, instead of being printed and
+	 * kept.
+	 */
+	public static GoBackNReceiver accept(int port, int maxWindow) {
+		return new GoBackNReceiver(port, maxWindow, true);
+	}
+
+	private GoBackNReceiver(int port, int maxWindow, boolean stream) {
+		this.maxWindow = Math.max(1, Math.min(maxWindow, GoBackNPacket.MAX_WINDOW));
 		// STEP 1: Fill in this constructor method
-        // Initialize receiverSocket as a DatagramSocket on the specified port
+        // Initialize receiverChannel as a DatagramChannel on the specified port
 		try{
-			receiverSocket = new DatagramSocket(port);			
-		} catch(SocketException e){
-			System.out.println("Error creating receiverSocket" + e);
+			receiverChannel = DatagramChannel.open();
+			receiverChannel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER);
+			receiverChannel.bind(new InetSocketAddress(port));
+		} catch(IOException e){
+			System.out.println("Error creating receiverChannel" + e);
 			System.exit(1);
 		}
 		
         // Then call waitForConnection()
 		System.out.println("\n\nWaiting for connection");
 		waitForConnection();
-		
+
+        // Call the receiveMessage() method to receive the message, unless
+		// it is to be read as a stream
+		if(!stream){
+			receiveMessage();
+		}
 	}
 	
 	/**
@@ -48,109 +114,203 @@ class GoBackNReceiver {
 	private void waitForConnection() {
 		// STEP 2: Block until a Hello packet is received, then initialize the receiver
         
-		// Create a dummy DatagramPacket
-		GoBackNPacket incomingPacket = new GoBackNPacket((byte)-1, (byte)-1, (char)0);
-		DatagramPacket incomingDatagramPacket = incomingPacket.toDatagramPacket();
-		
 		// First block until receiving an incoming message		
 		// Make sure it's a Hello (otherwise, ignore it and continue waiting)
-		while(!incomingPacket.isHello()){
+		do{
 			try{
-				receiverSocket.receive(incomingDatagramPacket);
-				incomingPacket = new GoBackNPacket(incomingDatagramPacket);
+				incoming.clear();
+				sender = receiverChannel.receive(incoming);
+				incoming.flip();
 			} catch(IOException e){
 				System.out.println("An error occurred receiving a datagram packet" + e);			
 				System.exit(1);
 			}
-		}
+		} while(!incomingPacket.isValid() || !incomingPacket.isHello());
 		
-		senderIPAddress = incomingDatagramPacket.getAddress();
-		senderPort = incomingDatagramPacket.getPort();		
-		
-        // If it's a Hello, initialize expectedseqnum to 0
-		expectedseqnum = 0;
+		// Only take packets from this sender from now on
+		try{
+			receiverChannel.connect(sender);
+		} catch(IOException e){
+			System.out.println("An error occurred connecting to the sender" + e);
+			System.exit(1);
+		}
 		
-        // Send an ACK back to the sender using the sendAck() method
-		sendAck(expectedseqnum);
+        // If it's a Hello, start the session with expectedseqnum at 0
+		session = new ReceiverSession(incomingPacket, maxWindow) {
+			void deliver(ByteBuffer payload) {
+				GoBackNReceiver.this.deliver(payload);
+			}
+		};
 		
-        // Call the receiveMessage() method to receive the message
-		receiveMessage();
+        // Send an ACK back to the sender granting the window it asked for,
+		// up to maxWindow, and agreeing to Selective Repeat if it asked
+		session.encodeHelloAck(reply);
+		send();
 	}
 	
 	/**
 	 * Receive message from the sender
 	 */
 	private void receiveMessage() {
+		// Print each part of the stream to the command line and add it to
+		// the message, until the Goodbye
+		ByteBuffer buffer = ByteBuffer.wrap(payloadBytes);
+		int length;
+		try{
+			while((length = read(buffer)) >= 0){
+				System.out.write(payloadBytes, 0, length);
+				message.write(payloadBytes, 0, length);
+				buffer.clear();
+			}
+		} catch(IOException e){
+			System.out.println("Error receiving the message" + e);
+			System.exit(1);
+		}
+		System.out.flush();
+		close();
+	}
+
+	/**
+	 * Read the next bytes of the stream, receiving packets until some
+	 * arrive in order. Returns -1 once the sender has said Goodbye and
+	 * everything it sent has been read.
+	 */
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if(!open){
+			throw new ClosedChannelException();
+		}
+		int start = dst.position();
+		if(!dst.hasRemaining()){
+			return 0;
+		}
 		
-		byte seqnum;
+		// Bytes delivered past the end of the last buffer come first
+		if(pending.position() > 0){
+			pending.flip();
+			put(pending, dst);
+			pending.compact();
+			return dst.position() - start;
+		}
 		
 		// STEP 3: Implement the main portion of the Go-back-N protocol
 		
-		//Create a dummy Datagram packet
-		GoBackNPacket incomingPacket = new GoBackNPacket((byte)-1, (byte)-1, (char)0);
-		DatagramPacket incomingDatagramPacket = incomingPacket.toDatagramPacket();
-		
         // Contine processing Data packets until the Goodbye packet is received
-		// When Goodbye is received, close the socket and leave
-		while(!incomingPacket.isGoodbye()){
-			try{
-				receiverSocket.receive(incomingDatagramPacket);
-				incomingPacket = new GoBackNPacket(incomingDatagramPacket);				
-			} catch(IOException e){
-				System.out.println("Error receiving a Goodbye packet" + e);
-				System.exit(1);
-			}
-			
-	        // For each data packet received, check the sequence number
-			seqnum = incomingPacket.getSequenceNumber();
-			
-	        // If it was the expected one, print the data to the command line
-			if(seqnum == expectedseqnum){
-				System.out.print(incomingPacket.getValue());
-
-				// Send the appropriate ACK to the sender
-				sendAck(expectedseqnum);
-				
-				// Increment the expected seqnum 
-				expectedseqnum = (byte)(expectedseqnum + 1);
+		// When Goodbye is received, answer it and leave
+		destination = dst;
+		while(!finished && dst.position() == start){
+			if(receivePacket().isGoodbye()){
+				// Answer the Goodbye with our own so the sender knows it arrived
+				reply.encode(GoBackNPacket.TYPE_GOODBYE, 0);
+				send();
+				finished = true;
 			}
-			
-			// Otherwise, send an ACK for the last packet
-			else{
-				sendAck((byte)(expectedseqnum -1));
+	        // For each data packet received, the session checks the sequence
+			// number, delivers what is now in order and encodes the ACK to send
+			else if(session.receive(incomingPacket, reply)){
+				send();
 			}
 		}
-		// Close the connection
-		receiverSocket.close();
+		destination = null;
+		
+		int length = dst.position() - start;
+		return length == 0 && finished ? -1 : length;
 	}
 	
 	/**
-	 * Helper method to receive a single packet from the sender
+	 * Get an InputStream that reads the stream
 	 */
-	private GoBackNPacket receivePacket() {
-		byte[] data = new byte[3];
-		DatagramPacket dgPacket = new DatagramPacket(data,3);
-		try {
-			receiverSocket.receive(dgPacket);
-		} catch (Exception e) {
-			System.out.println("Receiver error when receiving data packet");
-			System.out.print(e);
-			System.out.println("");
-			System.exit(1);
+	public InputStream getInputStream() {
+		return Channels.newInputStream(this);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Close the connection. A sender that has not said Goodbye yet gets no
+	 * answer to it.
+	 */
+	@Override
+	public void close() {
+		open = false;
+		try{
+			receiverChannel.close();
+		} catch(IOException e){
+			System.out.println("Error closing receiverChannel" + e);
 		}
-		return new GoBackNPacket(dgPacket);
 	}
 	
 	/**
-	 * Helper method to send an ACK for a given sequence number
+	 * Copy the next payload in order into the buffer being read into, and
+	 * keep what does not fit for the next read
+	 */
+	private void deliver(ByteBuffer payload) {
+		if(pending.position() == 0){
+			put(payload, destination);
+		}
+		if(payload.hasRemaining()){
+			if(pending.remaining() < payload.remaining()){
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+					pending.position() + payload.remaining()));
+				pending.flip();
+				grown.put(pending);
+				pending = grown;
+			}
+			pending.put(payload);
+		}
+	}
+
+	/**
+	 * Copy as much of src as fits into dst
+	 */
+	private static void put(ByteBuffer src, ByteBuffer dst) {
+		int limit = src.limit();
+		src.limit(src.position() + Math.min(src.remaining(), dst.remaining()));
+		dst.put(src);
+		src.limit(limit);
+	}
+	
+	/**
+	 * Helper method to receive a single packet from the sender into
+	 * incoming, skipping anything that is not a whole packet
+	 */
+	private GoBackNFlyweight receivePacket() {
+		do {
+			incoming.clear();
+			try {
+				receiverChannel.read(incoming);
+			} catch (PortUnreachableException e) {
+				// An ACK found nothing listening at the sender; it may have
+				// given up, but wait for its Goodbye as before
+			} catch (Exception e) {
+				System.out.println("Receiver error when receiving data packet");
+				System.out.print(e);
+				System.out.println("");
+				System.exit(1);
+			}
+			incoming.flip();
+		} while (!incomingPacket.isValid());
+		return incomingPacket;
+	}
+	
+	/**
+	 * Get the message received so far, reassembled from its segments
+	 */
+	public byte[] getMessage() {
+		return message.toByteArray();
+	}
+	
+	/**
+	 * Helper method to send the packet encoded in outgoing to the sender
 	 */
-	private void sendAck(byte sequenceNumber) {
-		GoBackNPacket gbnPacket = new GoBackNPacket(GoBackNPacket.TYPE_ACK, sequenceNumber, 'a');
-		DatagramPacket p = gbnPacket.toDatagramPacket();
-		p.setAddress(senderIPAddress);
-		p.setPort(senderPort);
+	private void send() {
 		try {
-			receiverSocket.send(p);
+			receiverChannel.write(outgoing);
+		} catch (PortUnreachableException e) {
+			// Lost, as far as the sender can tell
 		} catch (Exception e) {
 			System.out.println("Receiver error when sending ACK");
 			System.out.print(e);
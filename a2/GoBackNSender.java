@@ -15,20 +15,112 @@
  
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 
-class GoBackNSender {
+class GoBackNSender implements WritableByteChannel {
 
-	// UDP socket for communications
-	private DatagramSocket senderSocket;
+	// UDP channel for communications, connected to the receiver, and a
+	// selector to wait on it for at most the retransmission timeout
+	private DatagramChannel senderChannel;
+	private Selector selector;
+	private SelectionKey key;
+
+	// Reused direct buffers for the packet being sent and the one received,
+	// written and read in place through flyweights
+	private final ByteBuffer outgoing = ByteBuffer.allocateDirect(GoBackNPacket.MAX_DATAGRAM);
+	private final ByteBuffer incoming = ByteBuffer.allocateDirect(GoBackNPacket.MAX_DATAGRAM);
+	private final GoBackNFlyweight outgoingPacket = new GoBackNFlyweight().wrap(outgoing);
+	private final GoBackNFlyweight incomingPacket = new GoBackNFlyweight().wrap(incoming);
 	
 	// Receiver's IP Address and port number
 	private InetAddress receiverAddress;
 	private int receiverPort;
 	
-	// Go-Back-N Window size and nextseqnum
-	private static final int N = 5;
-	private byte nextseqnum;
-	private byte base;
+	// Go-Back-N Window size, as granted by the receiver, and nextseqnum.
+	// Sequence numbers run on with the stream and wrap around, so they are
+	// only compared by subtraction modulo 2^32.
+	private int N;
+	private int nextseqnum;
+	private int base;
+
+	// Per-packet state is kept in slot(seqnum). There are a power of two
+	// slots, at least N, so that the slots of consecutive sequence numbers
+	// stay consecutive when the numbers wrap.
+	private int slotMask;
+
+	// Segments written and not yet ACKed, each in its slot, so the sender
+	// holds at most a window of the stream. end is the sequence
+	// number of the segment write() is filling, which has fill bytes so
+	// far; it is sent once full or on flush().
+	private byte[][] segments;
+	private int[] segmentLengths;
+	private int end = 0;
+	private int fill = 0;
+
+	// When each packet of the window was last sent, whether it has been
+	// sent more than once and, in Selective Repeat, whether it was ACKed,
+	// by slot. After a Go-Back-N loss
+	// nextseqnum goes back to base; highestSent is one past the last
+	// packet ever sent.
+	private long[] sentAt;
+	private boolean[] resent;
+	private boolean[] acked;
+	private int highestSent = 0;
+
+	// Go-Back-N: the one timer runs for the oldest unacknowledged packet.
+	// Duplicate ACKs of base - 1 in a row. After a fast retransmit, the
+	// packet it was for and when the timer would have run out.
+	private long timerStart;
+	private int dupAcks = 0;
+	private boolean fastRetransmitted = false;
+	private int fastRetransmitSeq;
+	private long avoidedDeadline = 0;
+
+	// Go-Back-N: after a timeout or fast retransmit the window is sent
+	// again, and the receiver answers every copy of a packet it already
+	// has with a duplicate ACK. Like NewReno's "recover" (RFC 6582), the
+	// last packet sent when it happened; duplicate ACKs are ignored until
+	// an ACK goes past it.
+	private boolean recovering = false;
+	private int recover;
+
+	// Selective Repeat: unacknowledged packets in the order their timers
+	// run out. Every timer is the current timeout long, so that is the
+	// order they were last sent.
+	private SequenceQueue timers;
+
+	private boolean open = true;
+
+	// Congestion window; no more than min(cwnd, N) packets are sent past
+	// base unless congestion control is turned off
+	private CongestionWindow cwnd;
+	private boolean congestionControl = true;
+
+	// Most data bytes that fit in one packet without exceeding the MTU
+	private int maxPayload;
+
+	// Whether the receiver agreed to Selective Repeat instead of Go-Back-N
+	private boolean selectiveRepeat;
+
+	// Round trip time estimate, which sets how long to wait for an ACK
+	// before sending again
+	private RttEstimator rtt = new RttEstimator();
+
+	// Times to send a Hello or Goodbye before giving up on the receiver
+	private static final int MAX_ATTEMPTS = 10;
+
+	// Go-Back-N: duplicate ACKs that make the sender send the window again
+	// without waiting for the timeout, or 0 to always wait
+	private int dupAckThreshold = 3;
+
+	// Packets sent again, retransmission timers that ran out, windows sent
+	// again on duplicate ACKs, and how many of those were ACKed before the
+	// timer would have run out
+	private long retransmissions = 0;
+	private long timeouts = 0;
+	private long fastRetransmits = 0;
+	private long timeoutsAvoided = 0;
 
 
 	/**
@@ -36,12 +128,42 @@ class GoBackNSender {
 	 * the named host.
 	 */
 	public GoBackNSender(String host, int port) {
+		this(host, port, GoBackNPacket.DEFAULT_MTU, GoBackNPacket.DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Creates a GoBackNSender that sends datagrams of at most mtu bytes,
+	 * header included, and asks the receiver for a window of that many
+	 * packets. The receiver may grant a smaller one.
+	 */
+	public GoBackNSender(String host, int port, int mtu, int window) {
+		this(host, port, mtu, window, false);
+	}
+
+	/**
+	 * Creates a sender as above that asks the receiver for Selective Repeat
+	 * if selectiveRepeat is set. A receiver that does not agree answers
+	 * without the flag, and the transfer uses Go-Back-N.
+	 */
+	public GoBackNSender(String host, int port, int mtu, int window, boolean selectiveRepeat) {
+		if (window < 1 || window > GoBackNPacket.MAX_WINDOW) {
+			throw new IllegalArgumentException("Window must be between 1 and " + GoBackNPacket.MAX_WINDOW + " packets");
+		}
+		if (mtu <= GoBackNPacket.HEADER_LENGTH || mtu > GoBackNPacket.MAX_DATAGRAM) {
+			throw new IllegalArgumentException("MTU must be between " + (GoBackNPacket.HEADER_LENGTH + 1)
+				+ " and " + GoBackNPacket.MAX_DATAGRAM + " bytes");
+		}
+		maxPayload = mtu - GoBackNPacket.HEADER_LENGTH;
+
   		// STEP 4: Fill in the GoBackNSender constructor
-        // Initialize senderSocket
+        // Initialize senderChannel
 		try{
-			senderSocket = new DatagramSocket();			
-		} catch(SocketException e){
-			System.out.println("Error creating SenderSocket.\n" + e + "\n");
+			senderChannel = DatagramChannel.open();
+			senderChannel.configureBlocking(false);
+			selector = Selector.open();
+			key = senderChannel.register(selector, SelectionKey.OP_READ);
+		} catch(IOException e){
+			System.out.println("Error creating senderChannel.\n" + e + "\n");
 			System.exit(1);
 		}
 		
@@ -55,33 +177,58 @@ class GoBackNSender {
 			System.out.println("Error finding hostname\n" + e + "\n");
 			System.exit(1);
 		}
-		
-        // Construct a Hello packet and send it to the receiver		
-		GoBackNPacket helloPacket = new GoBackNPacket(GoBackNPacket.TYPE_HELLO, (byte)-1, (char)0);
-		DatagramPacket helloDatagramPacket = helloPacket.toDatagramPacket();
-		helloDatagramPacket.setAddress(receiverAddress);
-		helloDatagramPacket.setPort(port);
-		
 		try{
-			senderSocket.send(helloDatagramPacket);
+			senderChannel.connect(new InetSocketAddress(receiverAddress, receiverPort));
 		} catch(IOException e){
-			System.out.println("An error occurred sending the Hello packet\n" + e + "\n");
+			System.out.println("Error connecting to the receiver\n" + e + "\n");
 			System.exit(1);
 		}
 		
-        // Wait for an ACK
-		while(!helloPacket.isAck()){
-			try{
-				senderSocket.receive(helloDatagramPacket);
-			} catch(IOException e){
-				System.out.println("Error receiving the Hello ACK packet");
-				System.out.println(e + "\n");
+        // Construct a Hello packet asking for the window and send it to the receiver		
+		byte flags = selectiveRepeat ? GoBackNPacket.FLAG_SELECTIVE_REPEAT : 0;
+		outgoingPacket.encode(GoBackNPacket.withWindow(GoBackNPacket.TYPE_HELLO, window, flags).toBytes());
+		
+        // Wait for an ACK, sending the Hello again each time the
+		// retransmission timeout runs out
+		GoBackNFlyweight helloAck = null;
+		for(int attempt = 0; helloAck == null; attempt++){
+			if(attempt == MAX_ATTEMPTS){
+				System.out.println("No answer to the Hello packet from " + host + ":" + port);
 				System.exit(1);
 			}
-			helloPacket = new GoBackNPacket(helloDatagramPacket);
+			send();
+			long sentAt = System.nanoTime();
+			GoBackNFlyweight packet;
+			do{
+				packet = receivePacket(rtt.getTimeoutMillis());
+			} while(packet != null && !packet.isAck());
+			if(packet == null){
+				rtt.backOff();
+			}
+			else{
+				helloAck = packet;
+				// Karn's rule: only time a Hello that was sent once
+				if(attempt == 0){
+					rtt.sample(System.nanoTime() - sentAt);
+				}
+			}
 		}
 		
-		System.out.println("Hello packet acknowledged");
+		// The ACK carries the window the receiver granted, and whether it
+		// agreed to Selective Repeat
+		N = Math.max(1, Math.min(window, helloAck.window()));
+		this.selectiveRepeat = (helloAck.flags() & GoBackNPacket.FLAG_SELECTIVE_REPEAT) != 0;
+		cwnd = new CongestionWindow(N);
+		int slots = N == 1 ? 1 : Integer.highestOneBit(N - 1) << 1;
+		slotMask = slots - 1;
+		segments = new byte[slots][];
+		segmentLengths = new int[slots];
+		sentAt = new long[slots];
+		resent = new boolean[slots];
+		acked = new boolean[slots];
+		timers = new SequenceQueue(2 * N);
+		System.out.println("Hello packet acknowledged, window " + N
+			+ (this.selectiveRepeat ? ", selective repeat" : ", go-back-N"));
 		
         // Initialize base and nextseqnum to zero
 		base = 0;
@@ -90,147 +237,523 @@ class GoBackNSender {
 	
 	
 	/**
-	 * Helper method to send a single Go-back-N packet
+	 * Helper method to send a single Go-back-N packet carrying one segment
+	 * of the message
 	 */
-	private void sendData(byte seqnum, char c) {
-		GoBackNPacket gbnPacket = new GoBackNPacket(GoBackNPacket.TYPE_DATA, seqnum, c);
-		DatagramPacket p = gbnPacket.toDatagramPacket();
-		p.setAddress(receiverAddress);
-		p.setPort(receiverPort);
+	private void sendData(int seqnum, byte[] message, int offset, int length) {
+		outgoingPacket.encode(GoBackNPacket.TYPE_DATA, seqnum, message, offset, length);
+		send();
+	}
+
+	/**
+	 * Helper method to send the packet encoded in outgoing, which may be
+	 * sent again by calling this again
+	 */
+	private void send() {
 		try {
-			senderSocket.send(p);
+			outgoing.rewind();
+			// The channel does not block, so wait for room in the socket's
+			// send buffer rather than drop the packet
+			while (senderChannel.write(outgoing) == 0) {
+				key.interestOps(SelectionKey.OP_WRITE);
+				selector.select();
+				selector.selectedKeys().clear();
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		} catch (PortUnreachableException e) {
+			// Nothing is listening yet; the timer covers it as a lost packet
 		} catch (Exception e) {
-			System.out.println("Sender error sending data packet (" + seqnum + ", " + c + ")");
+			System.out.println("Sender error sending packet (" + outgoingPacket.sequenceNumber() + ", "
+				+ outgoingPacket.payloadLength() + " bytes)");
 			System.out.print(e);
 			System.out.println("");
 			System.exit(1);
 		}
 	}
+
+	/**
+	 * Send segment number seqnum of the stream
+	 */
+	private void sendSegment(int seqnum) {
+		sendData(seqnum, segments[slot(seqnum)], 0, segmentLengths[slot(seqnum)]);
+	}
 	
 	
 	/**
 	 * Helper method to receive an ACK.  
-	 * When an ACK is received, return the ACKed sequence number
-	 * After timeout milliseconds, this method times out and throws an exception
+	 * When an ACK is received, return it, to be read until the next packet
+	 * After timeout milliseconds, this method times out and returns null.
+	 * Timing out is common, so it does not cost an exception.
 	 */
-	private byte receiveAck(int timeout) throws SocketTimeoutException {
-		byte[] data = new byte[3];
-		DatagramPacket dgPacket = new DatagramPacket(data, 3);
-		try {
-			senderSocket.setSoTimeout(timeout);
-			senderSocket.receive(dgPacket);
-		} catch (Exception e) {
-			if (e instanceof SocketTimeoutException) {
-				throw (SocketTimeoutException)e;
-			} else {
+	private GoBackNFlyweight receiveAck(int timeout) {
+		GoBackNFlyweight packet = receivePacket(timeout);
+		if (packet != null && !packet.isAck()) {
+			// Print an error message because this isn't an ACK
+			System.out.println("Sender error: Expecting an ACK but received something else");
+			System.exit(1);
+		}
+		return packet;
+	}
+
+	/**
+	 * Helper method to receive any packet from the receiver into incoming,
+	 * waiting at most timeout milliseconds, or with a timeout of 0 only
+	 * taking one already waiting. The flyweight returned reads it until
+	 * the next packet is received; it is null if none arrived in time.
+	 */
+	private GoBackNFlyweight receivePacket(int timeout) {
+		long deadline = System.nanoTime() + timeout * 1000000L;
+		while (!readPacket()) {
+			long now = System.nanoTime();
+			if (now - deadline >= 0) {
+				return null;
+			}
+			try {
+				selector.select(millisUntil(deadline, now));
+				selector.selectedKeys().clear();
+			} catch (IOException e) {
 				System.out.println("Sender error while receiving ACK");
 				System.out.print(e);
 				System.out.println("");
 				System.exit(1);
 			}
 		}
+		return incomingPacket;
+	}
 
-		GoBackNPacket gbnPacket = new GoBackNPacket(dgPacket);
-		if (!gbnPacket.isAck()) {
-			// Print an error message because this isn't an ACK
-			System.out.println("Sender error: Expecting an ACK but received something else");
+	/**
+	 * Read a waiting packet into incoming, if there is a whole one
+	 */
+	private boolean readPacket() {
+		incoming.clear();
+		try {
+			if (senderChannel.read(incoming) <= 0) {
+				return false;
+			}
+		} catch (PortUnreachableException e) {
+			// A packet found nothing listening; wait as if it were lost
+			return false;
+		} catch (IOException e) {
+			System.out.println("Sender error while receiving ACK");
+			System.out.print(e);
+			System.out.println("");
 			System.exit(1);
 		}
-		return gbnPacket.getSequenceNumber();
+		incoming.flip();
+		return incomingPacket.isValid();
 	}
 	
 	
 	/**
-	 * Send a message one character at a time using the Go-back-N reliable
-	 * data transfer protocol.
+	 * Send a message using the Go-back-N reliable data transfer protocol
 	 */
 	public void send(String message) {
+		send(message.getBytes());
+	}
+
+	/**
+	 * Send a byte array using the Go-back-N reliable data transfer protocol,
+	 * split into segments of up to maxPayload bytes, one per packet, and
+	 * return once all of it has been ACKed
+	 */
+	public void send(byte[] message) {
+		append(ByteBuffer.wrap(message));
+		flush();
+	}
+
+	/**
+	 * Write bytes to the stream. Only a window of segments is held; once
+	 * the window is full this blocks until the receiver ACKs the oldest.
+	 * The last partial segment is held until it fills or flush() is called.
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		return append(src);
+	}
+
+	/**
+	 * Get an OutputStream that writes to the stream, whose flush() and
+	 * close() are those of the sender
+	 */
+	public OutputStream getOutputStream() {
+		return new OutputStream() {
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				GoBackNSender.this.write(ByteBuffer.wrap(b, off, len));
+			}
+
+			public void flush() {
+				GoBackNSender.this.flush();
+			}
+
+			public void close() {
+				GoBackNSender.this.close();
+			}
+		};
+	}
+
+	/**
+	 * Copy bytes into segments, sending each as it fills
+	 */
+	private int append(ByteBuffer src) {
+		int written = src.remaining();
+		while (src.hasRemaining()) {
+			// Wait for base to move past the slot of the next segment
+			while (end - base >= N) {
+				step(true);
+			}
+			int index = slot(end);
+			if (segments[index] == null) {
+				segments[index] = new byte[maxPayload];
+			}
+			int length = Math.min(src.remaining(), maxPayload - fill);
+			src.get(segments[index], fill, length);
+			fill += length;
+			if (fill == maxPayload) {
+				endSegment();
+				// Send what the window allows and take any ACKs waiting,
+				// without blocking the writer
+				step(false);
+			}
+		}
+		return written;
+	}
+
+	private void endSegment() {
+		segmentLengths[slot(end)] = fill;
+		end++;
+		fill = 0;
+	}
+
+	/**
+	 * Send the partial segment, if any, and wait until everything written
+	 * has been ACKed
+	 */
+	public void flush() {
+		if (fill > 0) {
+			endSegment();
+		}
 		// STEP 5: Implement the main part of the Go-Back-N sender
 		
-		int length = message.length();
-		int bytesSent = 0;
-		
-        // First send one window's worth of packets 
-		for(int i = 0; i < N; i++){
-			nextseqnum = (byte)i;
-			sendData(nextseqnum, message.charAt(i));
+		// BASE --> Sequence number of the oldest unacknowledged packet
+		// NEXTSEQNUM --> Sequence number of the next packet to be sent
+		// Both count segments from the start of the stream
+		while (base - end < 0) {
+			step(true);
 		}
-		
-        // Then start a loop that iterates until the entire message is received
-		while(bytesSent < length-1){
+	}
 
-			// BASE --> Sequence number of the oldest unacknowledged packet
-			// NEXTSEQNUM --> Sequence number of the next packet to be sent
-			
-			// Within the loop, first wait for an ACK using receiveAck(timeout)
-			try{
-				int seqNumDifference = base;
-				byte receivedSeqNum = (byte)(1+receiveAck(50));
-				
-				// After the ACK, update base and send new packets as appropriate
-				base = receivedSeqNum;
-				
-				// Bytes range from [-128, 127], so integers casted into bytes
-				// will increment up to 127, then roll over to -128 and decrease to 0
-				
-				// Check if the bytes have wrapped around
-				if((seqNumDifference < 0 && receivedSeqNum >= 0) || (receivedSeqNum < 0 && seqNumDifference >=0)){
-					seqNumDifference = Math.abs(seqNumDifference + receivedSeqNum);
-				}
-				
-				else{
-					seqNumDifference = receivedSeqNum - seqNumDifference;
-				}				
-				
-				// Increment the sequence number, wrapping around if necessary
-				bytesSent = bytesSent + seqNumDifference;
+	/**
+	 * Send what the window allows, then take one ACK or handle a timeout.
+	 * Waits until the next timer runs out for an ACK if wait is set, and
+	 * otherwise only takes one already waiting.
+	 */
+	private void step(boolean wait) {
+		if (selectiveRepeat) {
+			stepSelectiveRepeat(wait);
+		}
+		else {
+			stepGoBackN(wait);
+		}
+	}
+
+	private void stepGoBackN(boolean wait) {
+		// Send packets until the window is full
+		while(nextseqnum - base < window() && nextseqnum - end < 0){
+			// Nothing was outstanding, so the timer starts with this packet
+			if(nextseqnum == base){
+				timerStart = System.nanoTime();
+			}
+			sendSegment(nextseqnum);
+			sentAt[slot(nextseqnum)] = System.nanoTime();
+			resent[slot(nextseqnum)] = nextseqnum - highestSent < 0;
+			if(resent[slot(nextseqnum)]){
+				retransmissions++;
+			}
+			nextseqnum++;
+			if(nextseqnum - highestSent > 0){
+				highestSent = nextseqnum;
+			}
+		}
+
+		// Then wait for an ACK using receiveAck(timeout), until the
+		// timer runs out. Once it has, still take an ACK that is
+		// already waiting before deciding the packet was lost.
+		long now = System.nanoTime();
+		boolean expired = now - timerStart >= rtt.getTimeout();
+		GoBackNFlyweight packet = receiveAck(expired || !wait ? 0
+			: millisUntil(timerStart + rtt.getTimeout(), now));
+		if(packet == null){
+			// No ACK was waiting, but the timer has not run out yet
+			if(!wait && !expired){
+				return;
+			}
+
+			// If receiveAck() times out, retransmit
+			System.out.println("Timed out, retransmitting");
+			timeouts++;
+			dupAcks = 0;
+			fastRetransmitted = false;
+			recovering = true;
+			recover = highestSent - 1;
+			rtt.backOff();
+
+			// Start again from a congestion window of one packet, and
+			// send the window again from base
+			cwnd.timedOut(highestSent - base);
+			nextseqnum = base;
+			timerStart = System.nanoTime();
+			return;
+		}
+		// A late copy of the ACK of the Hello carries the window, and its
+		// sequence number of -1 would pass for a duplicate ACK while base
+		// is 0; only ACKs of data count
+		if(packet.payloadLength() > 0){
+			return;
+		}
+		int ack = packet.sequenceNumber();
+
+		// The receiver ACKs the last packet it got in order. Find
+		// how far past base - 1 it is, modulo 2^32; a stale or
+		// duplicate ACK gives zero or less
+		int advance = ack - (base - 1);
+		if(advance > 0 && advance <= highestSent - base){
+			// Karn's rule: only time packets that were sent once
+			if(!resent[slot(ack)]){
+				rtt.sample(System.nanoTime() - sentAt[slot(ack)]);
+			}
+			base = base + advance;
+			if(nextseqnum - base < 0){
 				nextseqnum = base;
-				
-				// Check that the number of packets to send does not exceed the message length
-				if((bytesSent + seqNumDifference) > length -1 ){
-					seqNumDifference = length - bytesSent;
-				}
-				
-				// Send the amount of packets which have been successfully ACK'ed
-				for(int i = 0; i < seqNumDifference; i++){
-					sendData((byte)(nextseqnum + i), message.charAt(bytesSent + i));					
-				}
-				
-			} catch(SocketTimeoutException e){
-				// If receiveAck() times out, catch the exception and retransmit
-				System.out.println("Timed out, retransmitting");
-				int packetsToSend = N;
-				
-				//Don't send more packets than the message length
-				if(bytesSent + N > length-1){
-					packetsToSend = length-1 - bytesSent;
-				}
+			}
+			cwnd.acked(advance);
+			timerStart = System.nanoTime();
+			dupAcks = 0;
+			if(recovering && ack - recover > 0){
+				recovering = false;
+			}
 
-				//Send the window again
-				for(int i = 0; i < packetsToSend; i++){
-					sendData((byte)(nextseqnum + i), message.charAt(bytesSent+i));
+			// Did a fast retransmit get the packet through sooner
+			// than waiting for the timeout would have?
+			if(fastRetransmitted && base - fastRetransmitSeq > 0){
+				if(timerStart - avoidedDeadline < 0){
+					timeoutsAvoided++;
 				}
+				fastRetransmitted = false;
+			}
+		}
+		
+		// The receiver got a packet after a gap, so base is likely
+		// lost: halve the congestion window and go back to base
+		// now rather than at the timeout
+		else if(advance == 0 && dupAckThreshold > 0 && !recovering
+				&& ++dupAcks == dupAckThreshold){
+			fastRetransmits++;
+			fastRetransmitted = true;
+			fastRetransmitSeq = base;
+			recovering = true;
+			recover = highestSent - 1;
+			avoidedDeadline = timerStart + rtt.getTimeout();
+			cwnd.lost(highestSent - base);
+			nextseqnum = base;
+			timerStart = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Selective Repeat: the receiver ACKs every packet it gets and buffers
+	 * the ones that arrive out of order, so each packet has its own timer
+	 * and only packets whose timer runs out are sent again
+	 */
+	private void stepSelectiveRepeat(boolean wait) {
+		// Send new packets until the window is full
+		long now = System.nanoTime();
+		while(nextseqnum - base < window() && nextseqnum - end < 0){
+			sendSegment(nextseqnum);
+			acked[slot(nextseqnum)] = false;
+			resent[slot(nextseqnum)] = false;
+			sentAt[slot(nextseqnum)] = now;
+			timers.add(nextseqnum);
+			nextseqnum++;
+		}
+
+		// Send again the packets whose timers have run out, dropping
+		// the timers of packets ACKed since
+		boolean timedOut = false;
+		while(!timers.isEmpty()){
+			int seqnum = timers.peek();
+			if(seqnum - base < 0 || acked[slot(seqnum)]){
+				timers.poll();
+			}
+			else if(now - sentAt[slot(seqnum)] >= rtt.getTimeout()){
+				timers.poll();
+				sendSegment(seqnum);
+				retransmissions++;
+				resent[slot(seqnum)] = true;
+				sentAt[slot(seqnum)] = now;
+				timers.add(seqnum);
+				timedOut = true;
+			}
+			else{
+				break;
 			}
 		}
+		if(timedOut){
+			System.out.println("Timed out, retransmitting");
+			timeouts++;
+			rtt.backOff();
+			cwnd.timedOut(nextseqnum - base);
+		}
+
+		// Then wait for an ACK until the next timer runs out
+		int timeout = !wait ? 0 : timers.isEmpty() ? rtt.getTimeoutMillis()
+			: millisUntil(sentAt[slot(timers.peek())] + rtt.getTimeout(), now);
+		GoBackNFlyweight packet = receiveAck(timeout);
+		if(packet == null){
+			// Timers that ran out are handled at the next step
+			return;
+		}
+		int ack = packet.sequenceNumber();
+
+		// Mark the packet ACKed, and slide the window past every
+		// ACKed packet at its start
+		if(ack - base >= 0 && ack - nextseqnum < 0 && !acked[slot(ack)]){
+			// Karn's rule: only time packets that were sent once
+			if(!resent[slot(ack)]){
+				rtt.sample(System.nanoTime() - sentAt[slot(ack)]);
+			}
+			acked[slot(ack)] = true;
+			cwnd.acked(1);
+			while(base - nextseqnum < 0 && acked[slot(base)]){
+				base++;
+			}
+		}
+	}
+
+	/**
+	 * Index of a sequence number's packet in the per-packet arrays
+	 */
+	private int slot(int seqnum) {
+		return seqnum & slotMask;
+	}
+
+	/**
+	 * Number of packets that may be outstanding past base
+	 */
+	private int window() {
+		return congestionControl ? Math.min(cwnd.get(), N) : N;
+	}
+
+	/**
+	 * Milliseconds from now until a System.nanoTime() deadline, at least 1
+	 * since a socket timeout of 0 waits forever
+	 */
+	private static int millisUntil(long deadline, long now) {
+		return (int)Math.max(1, (deadline - now + 999999) / 1000000);
+	}
+
+	/**
+	 * Set how many duplicate ACKs in a row make a Go-Back-N sender send the
+	 * window again without waiting for the timeout; 0 turns this off
+	 */
+	public void setDupAckThreshold(int dupAckThreshold) {
+		this.dupAckThreshold = Math.max(0, dupAckThreshold);
+	}
+
+	/**
+	 * Turn congestion control on or off. With it off the sender always
+	 * keeps N packets in flight.
+	 */
+	public void setCongestionControl(boolean congestionControl) {
+		this.congestionControl = congestionControl;
+	}
+
+	/**
+	 * Get the congestion window of this session, with its trace
+	 */
+	public CongestionWindow getCongestionWindow() {
+		return cwnd;
+	}
+
+	/**
+	 * Get the number of packets sent again, after a timeout or duplicate ACKs
+	 */
+	public long getRetransmissions() {
+		return retransmissions;
+	}
+
+	/**
+	 * Get the number of times the retransmission timer ran out
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * Get the number of times duplicate ACKs made the sender send the
+	 * window again
+	 */
+	public long getFastRetransmits() {
+		return fastRetransmits;
+	}
+
+	/**
+	 * Get the number of fast retransmits whose packet was ACKed before its
+	 * retransmission timer would have run out
+	 */
+	public long getTimeoutsAvoided() {
+		return timeoutsAvoided;
+	}
+
+	/**
+	 * Get the round trip time estimate and current retransmission timeout
+	 * of this session
+	 */
+	public RttEstimator getRtt() {
+		return rtt;
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return open;
 	}
 	
 	/**
-	 * Send a goodbye packet
+	 * Flush the stream, then send a goodbye packet, and again each time the
+	 * retransmission timeout runs out until the receiver answers with its
+	 * own
 	 */
 	public void close() {
-		GoBackNPacket gbnPacket = new GoBackNPacket(GoBackNPacket.TYPE_GOODBYE, (byte)0, 'g');
-		DatagramPacket p = gbnPacket.toDatagramPacket();
-		p.setAddress(receiverAddress);
-		p.setPort(receiverPort);
-		try {
-			senderSocket.send(p);
-		} catch (Exception e) {
-			System.out.println("Sender error sending goodbye packet");
-			System.out.print(e);
-			System.out.println("");
-			System.exit(1);
+		if(!open){
+			return;
+		}
+		flush();
+		open = false;
+		outgoingPacket.encode(GoBackNPacket.TYPE_GOODBYE, 0);
+		for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++){
+			send();
+			// Skip ACKs still arriving for the last window
+			GoBackNFlyweight packet;
+			do{
+				packet = receivePacket(rtt.getTimeoutMillis());
+			} while(packet != null && !packet.isGoodbye());
+			if(packet != null){
+				break;
+			}
+			rtt.backOff();
+		}
+		try{
+			selector.close();
+			senderChannel.close();
+		} catch(IOException e){
+			System.out.println("Error closing senderChannel\n" + e + "\n");
 		}
-		senderSocket.close();
 	}
 	
 
@@ -244,16 +767,77 @@ class GoBackNSender {
 		String message = "A long time ago, in a galaxy far, far away...\n\nEpisode IV, A NEW HOPE\n\nIt is a period of civil war. Rebel spaceships, striking from a hidden base, have won their first victory against the evil Galactic Empire. During the battle, Rebel spies managed to steal secret plans to the Empire's ultimate weapon, the DEATH STAR, an armored space station with enough power to destroy an entire planet. Pursued by the Empire's sinister agents, Princess Leia races home aboard her starship, custodian of the stolen plans that can save her people and restore freedom to the galaxy....";
 	
 		// Instantiate a new GoBackNSender which connects to address
-		// 'localhost' on port 9876
-		GoBackNSender gbnSender = new GoBackNSender("localhost", 9876);
+		// 'localhost' on port 9876, with the MTU and window size given on
+		// the command line, and "sr" third for Selective Repeat. A fourth
+		// argument names a file to write the congestion window trace to.
+		int mtu = args.length > 0 ? Integer.parseInt(args[0]) : GoBackNPacket.DEFAULT_MTU;
+		int window = args.length > 1 ? Integer.parseInt(args[1]) : GoBackNPacket.DEFAULT_WINDOW;
+		boolean selectiveRepeat = args.length > 2 && args[2].equals("sr");
+		GoBackNSender gbnSender = new GoBackNSender("localhost", 9876, mtu, window, selectiveRepeat);
 		
 		// Send the message
 		gbnSender.send(message);
-		System.out.println("Message sent!");
+		System.out.println("Message sent! (" + gbnSender.getRetransmissions() + " packets retransmitted, "
+			+ gbnSender.getTimeouts() + " timeouts, " + gbnSender.getFastRetransmits() + " fast retransmits, "
+			+ gbnSender.getTimeoutsAvoided() + " timeouts avoided)");
+		System.out.println(gbnSender.getRtt());
+		System.out.println(gbnSender.getCongestionWindow());
+		if(args.length > 3){
+			try{
+				PrintStream trace = new PrintStream(args[3]);
+				gbnSender.getCongestionWindow().writeTrace(trace);
+				trace.close();
+			} catch(IOException e){
+				System.out.println("Error writing the congestion window trace\n" + e + "\n");
+			}
+		}
 		
 		// Close the connection
 		gbnSender.close();
 		
 		System.out.println("");
 	}
-}
\ No newline at end of file
+
+	/**
+	 * FIFO of sequence numbers in a ring of ints, so Selective Repeat timers
+	 * are not boxed. It holds a few windows of packets at most, and grows
+	 * to fit them early in a transfer rather than per packet.
+	 */
+	private static final class SequenceQueue {
+		private int[] ring;
+		private int head = 0;
+		private int size = 0;
+
+		SequenceQueue(int capacity) {
+			ring = new int[capacity];
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		int peek() {
+			return ring[head];
+		}
+
+		int poll() {
+			int seqnum = ring[head];
+			head = (head + 1) % ring.length;
+			size--;
+			return seqnum;
+		}
+
+		void add(int seqnum) {
+			if (size == ring.length) {
+				int[] grown = new int[ring.length * 2];
+				for (int i = 0; i < size; i++) {
+					grown[i] = ring[(head + i) % ring.length];
+				}
+				ring = grown;
+				head = 0;
+			}
+			ring[(head + size) % ring.length] = seqnum;
+			size++;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/**
+ * Singzon, Ryan
+ * 260397455
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * MultiplexedReceiver - Go-back-N receiver for many senders at once
+ *
+ * Serves any number of concurrent transfers on one DatagramChannel from a
+ * single thread. Each sender address and port has its own ReceiverSession,
+ * started by its Hello and ended by its Goodbye; a session that hears
+ * nothing for idleMillis is reaped, so senders that vanish do not leak.
+ * Packets are decoded and encoded in place in two direct buffers.
+ *
+ * A Hello costs the receiver a session, which in Selective Repeat buffers
+ * up to a window of packets, and anyone can send one. So the window granted
+ * is small unless asked otherwise, and Hellos from new senders are dropped
+ * while maxSessions are in progress; those senders retry until one ends.
+ *
+ * Usage: java MultiplexedReceiver [port] [idle seconds] [max window] [max sessions]
+ */
+class MultiplexedReceiver {
+	static final long DEFAULT_IDLE_MILLIS = 30000;
+	static final int DEFAULT_MAX_WINDOW = 64;
+	static final int DEFAULT_MAX_SESSIONS = 256;
+
+	private final DatagramChannel channel;
+	private final Selector selector;
+	private final int maxWindow;
+	private final long idleMillis;
+	private final int maxSessions;
+
+	// Sessions by sender address and port
+	private final HashMap<SocketAddress, ReceiverSession> sessions = new HashMap<SocketAddress, ReceiverSession>();
+
+	// The datagram being handled and the reply to it
+	private final ByteBuffer incoming = ByteBuffer.allocateDirect(GoBackNPacket.MAX_DATAGRAM);
+	private final ByteBuffer outgoing = ByteBuffer.allocateDirect(GoBackNPacket.MAX_DATAGRAM);
+	private final GoBackNFlyweight packet = new GoBackNFlyweight().wrap(incoming);
+	private final GoBackNFlyweight reply = new GoBackNFlyweight().wrap(outgoing);
+	private volatile boolean running = true;
+
+	// Sessions ended by a Goodbye, and by being idle too long, and Hellos
+	// dropped because maxSessions were in progress
+	private long completed = 0;
+	private long reaped = 0;
+	private long refused = 0;
+
+	/**
+	 * Bind a receiver to the port that grants senders a window of at most
+	 * maxWindow packets, reaps sessions idle for idleMillis and serves at
+	 * most DEFAULT_MAX_SESSIONS at once
+	 */
+	public MultiplexedReceiver(int port, int maxWindow, long idleMillis) throws IOException {
+		this(port, maxWindow, idleMillis, DEFAULT_MAX_SESSIONS);
+	}
+
+	/**
+	 * Bind a receiver to the port that grants senders a window of at most
+	 * maxWindow packets, reaps sessions idle for idleMillis and serves at
+	 * most maxSessions at once
+	 */
+	public MultiplexedReceiver(int port, int maxWindow, long idleMillis, int maxSessions) throws IOException {
+		this.maxWindow = Math.max(1, Math.min(maxWindow, GoBackNPacket.MAX_WINDOW));
+		this.idleMillis = idleMillis;
+		this.maxSessions = Math.max(1, maxSessions);
+		channel = DatagramChannel.open();
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, GoBackNReceiver.RECEIVE_BUFFER);
+		channel.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Receive and answer packets until close() is called
+	 */
+	public void serve() throws IOException {
+		// Look for idle sessions a few times per idle timeout
+		long reapInterval = Math.max(1, idleMillis / 4);
+		long nextReap = System.currentTimeMillis() + reapInterval;
+		try {
+			while (running) {
+				selector.select(Math.max(1, nextReap - System.currentTimeMillis()));
+				selector.selectedKeys().clear();
+
+				// Drain every datagram waiting on the channel
+				SocketAddress sender;
+				while ((sender = receive()) != null) {
+					incoming.flip();
+					if (packet.isValid()) {
+						handle(sender);
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if (now >= nextReap) {
+					reapIdle(now);
+					nextReap = now + reapInterval;
+				}
+			}
+		} finally {
+			selector.close();
+			channel.close();
+		}
+	}
+
+	/**
+	 * Stop serve(), from any thread
+	 */
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	private SocketAddress receive() throws IOException {
+		incoming.clear();
+		return channel.receive(incoming);
+	}
+
+	/**
+	 * Pass the packet in incoming to the session of its sender
+	 */
+	private void handle(SocketAddress sender) throws IOException {
+		ReceiverSession session = sessions.get(sender);
+		if (session == null) {
+			// Drop the Hello while full, without answering, so that
+			// the sender keeps retrying until a session ends
+			if (packet.isHello() && sessions.size() >= maxSessions) {
+				refused++;
+			}
+			else if (packet.isHello()) {
+				session = openSession(sender, packet);
+				sessions.put(sender, session);
+				session.encodeHelloAck(reply);
+				send(sender);
+			}
+			// A sender whose Goodbye answer was lost asks again after its
+			// session has ended, so answer without one
+			else if (packet.isGoodbye()) {
+				reply.encode(GoBackNPacket.TYPE_GOODBYE, 0);
+				send(sender);
+			}
+			return;
+		}
+
+		if (packet.isGoodbye()) {
+			sessions.remove(sender);
+			completed++;
+			reply.encode(GoBackNPacket.TYPE_GOODBYE, 0);
+			send(sender);
+			sessionEnded(sender, session, true);
+			return;
+		}
+		if (session.receive(packet, reply)) {
+			send(sender);
+		}
+	}
+
+	private void reapIdle(long now) {
+		Iterator<Map.Entry<SocketAddress, ReceiverSession>> entries = sessions.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<SocketAddress, ReceiverSession> entry = entries.next();
+			if (now - entry.getValue().getLastActive() >= idleMillis) {
+				entries.remove();
+				reaped++;
+				sessionEnded(entry.getKey(), entry.getValue(), false);
+			}
+		}
+	}
+
+	/**
+	 * Send the reply encoded in outgoing
+	 */
+	private void send(SocketAddress sender) throws IOException {
+		// A full send buffer drops the packet, as the network might; the
+		// sender's timer covers it
+		channel.send(outgoing, sender);
+	}
+
+	/**
+	 * Create the session for a sender's Hello. By default it only counts
+	 * the bytes delivered; override to keep them.
+	 */
+	protected ReceiverSession openSession(SocketAddress sender, GoBackNFlyweight hello) {
+		return new ReceiverSession(hello, maxWindow) {
+			void deliver(ByteBuffer payload) {
+			}
+		};
+	}
+
+	/**
+	 * Called when a session ends, after its Goodbye if completed, or when it
+	 * is reaped for being idle
+	 */
+	protected void sessionEnded(SocketAddress sender, ReceiverSession session, boolean completed) {
+		double seconds = (session.getLastActive() - session.getStarted()) / 1000.0;
+		System.out.println("Session " + sender + (completed ? " completed: " : " reaped when idle: ")
+			+ session.getBytes() + " bytes in " + seconds + " s");
+	}
+
+	/**
+	 * Get the number of sessions in progress. Call only from the thread
+	 * running serve().
+	 */
+	public int getSessions() {
+		return sessions.size();
+	}
+
+	public long getCompleted() {
+		return completed;
+	}
+
+	public long getReaped() {
+		return reaped;
+	}
+
+	public long getRefused() {
+		return refused;
+	}
+
+	/**
+	 * Main method
+	 */
+	public static void main(String args[]) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 9876;
+		long idleMillis = args.length > 1 ? Long.parseLong(args[1]) * 1000 : DEFAULT_IDLE_MILLIS;
+		int maxWindow = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_WINDOW;
+		int maxSessions = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MAX_SESSIONS;
+		MultiplexedReceiver receiver = new MultiplexedReceiver(port, maxWindow, idleMillis, maxSessions);
+		System.out.println("Receiving on port " + port);
+		receiver.serve();
+	}
+}
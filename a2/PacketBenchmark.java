@@ -0,0 +1,164 @@
+/**
+ * Singzon, Ryan
+ * 260397455
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.*;
+
+/**
+ * PacketBenchmark - Allocation per packet of the Go-back-N packet path
+ *
+ * Prints the bytes allocated and the time taken per packet: first the way
+ * the sender and receiver used to send, receive and ACK a packet, with a
+ * GoBackNPacket, byte[] and DatagramPacket per packet, sending and ACKing
+ * over loopback on one thread; then streamed through a real GoBackNSender
+ * to a GoBackNReceiver on another thread, in both modes, counting what the
+ * sender's thread allocates in write() and flush() and what the
+ * receiver's thread allocates meanwhile. The first half of each transfer
+ * is a warm-up, so that the JIT has compiled the path and the sender's
+ * segment buffers have all been allocated; only the second half is
+ * measured.
+ *
+ * Usage: java PacketBenchmark [packets] [first port]
+ */
+public class PacketBenchmark {
+	// Window the sender asks for and the receiver grants
+	static final int WINDOW = 64;
+
+	// Keeps the JIT from discarding the work
+	static long sink = 0;
+
+	public static void main(String args[]) throws Exception {
+		int packets = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 9990;
+		int payload = GoBackNPacket.DEFAULT_MTU - GoBackNPacket.HEADER_LENGTH;
+		byte[] message = new byte[payload * 16];
+
+		// Warm up the old path before measuring
+		packetPath(message, payload, packets / 5);
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		packetPath(message, payload, packets);
+		report("GoBackNPacket", packets, System.nanoTime() - start, allocatedBytes() - allocatedBefore, -1);
+
+		transfer("GoBackNSender go-back-N", message, packets, port, false);
+		transfer("GoBackNSender sel. repeat", message, packets, port + 1, true);
+	}
+
+	static void report(String name, int packets, long elapsed, long allocated, long receiverAllocated) {
+		String receiver = receiverAllocated < 0 ? ""
+			: String.format(" %8.1f receiver bytes/packet", (double) receiverAllocated / packets);
+		System.out.printf("%-26s %8.1f bytes/packet%s %8.1f ns/packet%n", name,
+			(double) allocated / packets, receiver, (double) elapsed / packets);
+	}
+
+	/**
+	 * Stream 2 * packets full packets from a GoBackNSender to a
+	 * GoBackNReceiver read on another thread, measuring the second half
+	 */
+	static void transfer(String name, byte[] message, int packets, final int port, boolean selectiveRepeat) throws Exception {
+		final GoBackNReceiver[] receiver = new GoBackNReceiver[1];
+		Thread reader = new Thread("receiver") {
+			@Override
+			public void run() {
+				receiver[0] = GoBackNReceiver.accept(port, WINDOW);
+				ByteBuffer dst = ByteBuffer.allocateDirect(1 << 16);
+				try {
+					while (receiver[0].read(dst) != -1) {
+						dst.clear();
+					}
+				} catch (IOException e) {
+					System.out.println(e);
+				}
+				receiver[0].close();
+			}
+		};
+		reader.start();
+
+		GoBackNSender sender = new GoBackNSender("localhost", port, GoBackNPacket.DEFAULT_MTU, WINDOW, selectiveRepeat);
+		ByteBuffer src = ByteBuffer.allocateDirect(message.length);
+		src.put(message);
+		int writes = packets / 16;
+		for (int i = 0; i < writes; i++) {
+			src.clear();
+			sender.write(src);
+		}
+		sender.flush();
+
+		long allocatedBefore = allocatedBytes();
+		long receiverBefore = allocatedBytes(reader.getId());
+		long retransmissionsBefore = sender.getRetransmissions();
+		long start = System.nanoTime();
+		for (int i = 0; i < writes; i++) {
+			src.clear();
+			sender.write(src);
+		}
+		sender.flush();
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+		long receiverAllocated = allocatedBytes(reader.getId()) - receiverBefore;
+		long retransmissions = sender.getRetransmissions() - retransmissionsBefore;
+
+		sender.close();
+		reader.join();
+		report(name, writes * 16, elapsed, allocated, receiverAllocated);
+		System.out.println("  " + retransmissions + " retransmissions, " + sender.getCongestionWindow());
+	}
+
+	/**
+	 * The packet path GoBackNSender and GoBackNReceiver used to take
+	 */
+	static void packetPath(byte[] message, int payload, int iterations) throws IOException {
+		DatagramSocket sender = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		InetAddress address = InetAddress.getLoopbackAddress();
+		try {
+			for (int i = 0; i < iterations; i++) {
+				// Sender: sendData()
+				GoBackNPacket data = new GoBackNPacket(GoBackNPacket.TYPE_DATA, i,
+					message, (i % 16) * payload, payload);
+				DatagramPacket p = data.toDatagramPacket();
+				p.setAddress(address);
+				p.setPort(receiver.getLocalPort());
+				sender.send(p);
+
+				// Receiver: receivePacket(), take the payload, send the ACK
+				DatagramPacket received = GoBackNPacket.receiveBuffer();
+				receiver.receive(received);
+				GoBackNPacket packet = new GoBackNPacket(received);
+				sink += packet.getPayload().length;
+				DatagramPacket ack = new GoBackNPacket(GoBackNPacket.TYPE_ACK,
+					packet.getSequenceNumber(), 'a').toDatagramPacket();
+				ack.setAddress(received.getAddress());
+				ack.setPort(received.getPort());
+				receiver.send(ack);
+
+				// Sender: receiveAck()
+				DatagramPacket acked = GoBackNPacket.receiveBuffer();
+				sender.receive(acked);
+				sink += new GoBackNPacket(acked).getSequenceNumber();
+			}
+		} finally {
+			sender.close();
+			receiver.close();
+		}
+	}
+
+	/**
+	 * Bytes allocated so far by this thread, from the HotSpot thread MXBean
+	 */
+	static long allocatedBytes() {
+		return allocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Bytes allocated so far by the thread with the given ID
+	 */
+	static long allocatedBytes(long threadId) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * Singzon, Ryan
+ * 260397455
+ */
+
+import java.nio.*;
+
+/**
+ * ReceiverSession - Receiver state of one Go-back-N transfer
+ *
+ * Everything a receiver keeps about one sender: the window granted in
+ * reply to its Hello, expectedseqnum and, in Selective Repeat, the packets
+ * buffered ahead of it. Each packet from the sender is passed to receive(),
+ * which encodes the packet to answer with and hands the payloads to
+ * deliver() in order. Packets are read and written through flyweights, and
+ * buffered payloads reuse their slots, so a session allocates nothing per
+ * packet once its window has filled.
+ */
+abstract class ReceiverSession {
+	private final int window;
+	private final boolean selectiveRepeat;
+	private final byte[] helloAck;
+
+	private int expectedseqnum = 0;
+
+	// Selective Repeat: payloads received ahead of expectedseqnum, in a
+	// ring of window slots where slot head holds expectedseqnum. A slot's
+	// buffer is kept for the next packet that lands in it.
+	private ByteBuffer[] buffered;
+	private boolean[] full;
+	private int head = 0;
+
+	private final long started = System.currentTimeMillis();
+	private long lastActive = started;
+	private long bytes = 0;
+
+	/**
+	 * Start a session for a sender's Hello, granting the window it asked
+	 * for up to maxWindow, and Selective Repeat if it asked
+	 */
+	public ReceiverSession(GoBackNFlyweight hello, int maxWindow) {
+		window = Math.max(1, Math.min(hello.window(), maxWindow));
+		byte flags = (byte)(hello.flags() & GoBackNPacket.FLAG_SELECTIVE_REPEAT);
+		selectiveRepeat = flags != 0;
+		if (selectiveRepeat) {
+			buffered = new ByteBuffer[window];
+			full = new boolean[window];
+		}
+		helloAck = GoBackNPacket.withWindow(GoBackNPacket.TYPE_ACK, window, flags).toBytes();
+	}
+
+	/**
+	 * Encode the ACK of the Hello, which carries the window granted
+	 */
+	public void encodeHelloAck(GoBackNFlyweight reply) {
+		reply.encode(helloAck);
+	}
+
+	/**
+	 * Handle a packet from the sender, other than the Goodbye. Encodes the
+	 * packet to answer with into reply and returns true, or returns false
+	 * if there is nothing to send.
+	 */
+	public boolean receive(GoBackNFlyweight packet, GoBackNFlyweight reply) {
+		lastActive = System.currentTimeMillis();
+
+		// The sender did not get our ACK of its Hello, so send it again
+		if (packet.isHello()) {
+			encodeHelloAck(reply);
+			return true;
+		}
+		// Ignore anything else
+		if (!packet.isData()) {
+			return false;
+		}
+
+		int seqnum = packet.sequenceNumber();
+		if (selectiveRepeat) {
+			return receiveSelectiveRepeat(seqnum, packet, reply);
+		}
+
+		// If it was the expected one, deliver it and ACK it
+		if (seqnum == expectedseqnum) {
+			deliverPayload(packet.payload());
+			expectedseqnum = expectedseqnum + 1;
+			reply.encode(GoBackNPacket.TYPE_ACK, seqnum);
+			return true;
+		}
+		// Otherwise, send an ACK for the last packet
+		reply.encode(GoBackNPacket.TYPE_ACK, expectedseqnum - 1);
+		return true;
+	}
+
+	/**
+	 * Selective Repeat: ACK every packet in the window, buffer it, and
+	 * deliver the packets at the start of the window once there are no gaps
+	 */
+	private boolean receiveSelectiveRepeat(int seqnum, GoBackNFlyweight packet, GoBackNFlyweight reply) {
+		int ahead = seqnum - expectedseqnum;
+		if (ahead >= 0 && ahead < window) {
+			int slot = (head + ahead) % window;
+			if (!full[slot]) {
+				int length = packet.payloadLength();
+				if (buffered[slot] == null || buffered[slot].capacity() < length) {
+					buffered[slot] = ByteBuffer.allocate(length);
+				}
+				buffered[slot].clear();
+				packet.getPayload(buffered[slot]);
+				buffered[slot].flip();
+				full[slot] = true;
+			}
+			while (full[head]) {
+				deliverPayload(buffered[head]);
+				full[head] = false;
+				head = (head + 1) % window;
+				expectedseqnum = expectedseqnum + 1;
+			}
+			reply.encode(GoBackNPacket.TYPE_ACK, seqnum);
+			return true;
+		}
+		// A packet from the last window was delivered already, but its ACK
+		// may have been lost, so ACK it again
+		if (ahead < 0 && ahead >= -window) {
+			reply.encode(GoBackNPacket.TYPE_ACK, seqnum);
+			return true;
+		}
+		return false;
+	}
+
+	private void deliverPayload(ByteBuffer payload) {
+		bytes += payload.remaining();
+		deliver(payload);
+	}
+
+	/**
+	 * Take the next payload of the message, in order, from the buffer's
+	 * position to its limit. The buffer is reused once this returns, so
+	 * copy out anything to be kept.
+	 */
+	abstract void deliver(ByteBuffer payload);
+
+	public int getWindow() {
+		return window;
+	}
+
+	public boolean isSelectiveRepeat() {
+		return selectiveRepeat;
+	}
+
+	public int getExpectedSeqNum() {
+		return expectedseqnum;
+	}
+
+	/**
+	 * Get the number of message bytes delivered so far
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get when the session started, from System.currentTimeMillis()
+	 */
+	public long getStarted() {
+		return started;
+	}
+
+	/**
+	 * Get when the last packet arrived, from System.currentTimeMillis()
+	 */
+	public long getLastActive() {
+		return lastActive;
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Singzon, Ryan
+ * 260397455
+ */
+
+/**
+ * RttEstimator - Retransmission timeout for a Go-back-N sender
+ *
+ * Estimates the round trip time from ACKs as TCP does (Jacobson and Karels,
+ * RFC 6298): a smoothed RTT and its mean deviation, with the timeout set to
+ * SRTT + 4 * RTTVAR. Samples must only come from packets that were sent
+ * once (Karn's rule), since the ACK of a retransmitted packet could be for
+ * either copy. Each timeout doubles the timeout until the next sample.
+ */
+class RttEstimator {
+	// Timeout before the first sample, and its bounds, in nanoseconds
+	static final long INITIAL_TIMEOUT = 50000000L;
+	static final long MIN_TIMEOUT = 1000000L;
+	static final long MAX_TIMEOUT = 60000000000L;
+
+	// Socket timeouts are in milliseconds, so the variance term is at
+	// least one of them
+	private static final long GRANULARITY = 1000000L;
+
+	private long srtt = 0;
+	private long rttvar = 0;
+	private long timeout = INITIAL_TIMEOUT;
+
+	private long samples = 0;
+	private long lastSample = 0;
+	private long minSample = Long.MAX_VALUE;
+	private long backoffs = 0;
+
+	/**
+	 * Add a round trip time sample, in nanoseconds
+	 */
+	public void sample(long rtt) {
+		if (samples == 0) {
+			srtt = rtt;
+			rttvar = rtt / 2;
+		}
+		else {
+			// RTTVAR uses the SRTT from before this sample
+			rttvar = rttvar + (Math.abs(srtt - rtt) - rttvar) / 4;
+			srtt = srtt + (rtt - srtt) / 8;
+		}
+		timeout = clamp(srtt + Math.max(GRANULARITY, 4 * rttvar));
+		samples++;
+		lastSample = rtt;
+		minSample = Math.min(minSample, rtt);
+	}
+
+	/**
+	 * Double the timeout after a retransmission timer ran out
+	 */
+	public void backOff() {
+		timeout = clamp(timeout * 2);
+		backoffs++;
+	}
+
+	/**
+	 * Get the current retransmission timeout in nanoseconds
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Get the current retransmission timeout in whole milliseconds, rounded
+	 * up, for a socket timeout
+	 */
+	public int getTimeoutMillis() {
+		return (int) ((timeout + 999999) / 1000000);
+	}
+
+	public long getSmoothedRtt() {
+		return srtt;
+	}
+
+	public long getRttVariation() {
+		return rttvar;
+	}
+
+	public long getSamples() {
+		return samples;
+	}
+
+	public long getLastSample() {
+		return lastSample;
+	}
+
+	/**
+	 * Get the smallest RTT sampled, or 0 before the first sample
+	 */
+	public long getMinSample() {
+		return samples == 0 ? 0 : minSample;
+	}
+
+	public long getBackoffs() {
+		return backoffs;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("rto %.3f ms, srtt %.3f ms, rttvar %.3f ms, min rtt %.3f ms, %d samples, %d backoffs",
+			timeout / 1e6, srtt / 1e6, rttvar / 1e6, getMinSample() / 1e6, samples, backoffs);
+	}
+
+	private static long clamp(long timeout) {
+		return Math.max(MIN_TIMEOUT, Math.min(timeout, MAX_TIMEOUT));
+	}
+}